@@ -20,6 +20,7 @@ exports.cliVersion = '>=3.2';
 	const appc = require('node-appc');
 	const metabase = require(path.join(__dirname, 'metabase'));
 	const GenerateMetabaseTask = require('./tasks/generate-metabase-task');
+	const GeneratePrebuiltClassesTask = require('./tasks/generate-prebuilt-classes-task');
 	const GenerateSourcesTask = require('./tasks/generate-sources-task');
 	const ScanReferencesTask = require('./tasks/scan-references-task');
 
@@ -198,6 +199,9 @@ exports.cliVersion = '>=3.2';
 		const jarPaths = jarDependenciesFileContent.split('\n');
 
 		// Fetch all public Java APIs from all JARs hyperloop has access to.
+		// "hyperloop: { android: { metabaseDaemon: true } }" in appc.js keeps the generator running between builds,
+		// "metabaseBoundedMemory: true" keeps its memory use down and "metabaseShards: true" only reads the packages the app uses.
+		const androidConfig = (this.cfg && this.cfg.android) || {};
 		metabase.util.setLog(this.logger);
 		const generateMetabaseTask = new GenerateMetabaseTask({
 			name: 'hyperloop:generateMetabase',
@@ -206,6 +210,9 @@ exports.cliVersion = '>=3.2';
 		});
 		generateMetabaseTask.outputDirectory = path.join(this.hyperloopBuildDir, 'metabase');
 		generateMetabaseTask.builder = this.builder;
+		generateMetabaseTask.daemon = androidConfig.metabaseDaemon === true;
+		generateMetabaseTask.boundedMemory = androidConfig.metabaseBoundedMemory === true;
+		generateMetabaseTask.shards = androidConfig.metabaseShards === true;
 		await generateMetabaseTask.run();
 
 		// Fetch all JavaScript file paths from the Titanium project.
@@ -251,6 +258,36 @@ exports.cliVersion = '>=3.2';
 		generateSourcesTask.references = scanReferencesTask.references;
 		await generateSourcesTask.run();
 
+		// Generate Java classes for all types the app's JS extends or implements.
+		// Hyperloop.extend()/implement() use these instead of generating classes on the device.
+		// Can be turned off with "hyperloop: { android: { prebuiltClasses: false } }" in appc.js.
+		let generatePrebuiltClassesTask = null;
+		if (androidConfig.prebuiltClasses !== false) {
+			generatePrebuiltClassesTask = new GeneratePrebuiltClassesTask({
+				name: 'hyperloop:generatePrebuiltClasses',
+				inputFiles: jsSourceFilePaths,
+				logger: this.logger
+			});
+			generatePrebuiltClassesTask.outputDirectory = path.join(this.hyperloopBuildDir, 'prebuilt');
+			generatePrebuiltClassesTask.metabase = generateMetabaseTask.metabase;
+			generatePrebuiltClassesTask.references = scanReferencesTask.references;
+			generatePrebuiltClassesTask.classPath = jarPaths;
+			await generatePrebuiltClassesTask.run();
+		}
+
+		// Copy the pre-generated classes into the app's Java sources right before gradle builds the app.
+		this.cli.on('build.pre.build', {
+			pre: async (builder, finished) => {
+				if (generatePrebuiltClassesTask && generatePrebuiltClassesTask.generatedClasses.length > 0
+					&& this.builder.buildAppMainDir) {
+					await fs.copy(
+						generatePrebuiltClassesTask.sourceDirectory,
+						path.join(this.builder.buildAppMainDir, 'java'));
+				}
+				finished();
+			}
+		});
+
 		// This event is emitted when build system requests for additional "Resources" directory paths from plugins.
 		// "data.args[0]" is an array of paths. We must add hyperloop's "Resources" directory path to it.
 		this.cli.on('build.android.requestResourcesDirPaths', {
@@ -0,0 +1,159 @@
+/**
+ * Reader for the binary metabase written by JavaMetabaseGenerator --format=binary.
+ *
+ * Only the string table offsets and the class index are read up front. A class is decoded
+ * the first time it's looked up, into the same object JSON.parse would have produced for it,
+ * so the result can be used in place of a parsed JSON metabase.
+ */
+var inherited = require('./inherited'),
+	lazyClasses = require('./lazy-classes'),
+	MAGIC = 'HLMB',
+	VERSION = 1,
+	NULL = 0,
+	FALSE = 1,
+	TRUE = 2,
+	STRING = 3,
+	NUMBER = 4,
+	ARRAY = 5,
+	OBJECT = 6,
+	END = 7;
+
+/**
+ * @param {Buffer} buf The binary metabase
+ * @constructor
+ */
+function BinaryMetabase(buf) {
+	if (buf.length < 16 || buf.toString('utf8', 0, 4) !== MAGIC || buf.toString('utf8', buf.length - 4) !== MAGIC) {
+		throw new Error('Not a binary metabase');
+	}
+	this.buf = buf;
+	this.pos = 4;
+	if (this.varint() !== VERSION) {
+		throw new Error('Unsupported binary metabase version');
+	}
+
+	// string table: remember where each string starts, decode on demand
+	this.pos = buf.readUInt32LE(buf.length - 12);
+	var count = this.varint(),
+		i, length;
+	this.stringOffsets = new Array(count);
+	this.stringLengths = new Array(count);
+	this.strings = new Array(count);
+	for (i = 0; i < count; i++) {
+		length = this.varint();
+		this.stringOffsets[i] = this.pos;
+		this.stringLengths[i] = length;
+		this.pos += length;
+	}
+
+	// class index
+	this.pos = buf.readUInt32LE(buf.length - 8);
+	count = this.varint();
+	this.classNames = new Array(count);
+	this.classOffsets = {};
+	var offset = 0, name;
+	for (i = 0; i < count; i++) {
+		name = this.string(this.varint());
+		offset += this.varint();
+		this.classNames[i] = name;
+		this.classOffsets[name] = offset;
+	}
+	this.decoded = {};
+}
+
+BinaryMetabase.prototype.varint = function () {
+	var result = 0,
+		shift = 0,
+		b;
+	do {
+		b = this.buf[this.pos++];
+		// avoid bitwise ops, they're limited to 32 bits
+		result += (b & 0x7F) * Math.pow(2, shift);
+		shift += 7;
+	} while (b & 0x80);
+	return result;
+};
+
+BinaryMetabase.prototype.string = function (index) {
+	var string = this.strings[index];
+	if (string === undefined) {
+		var start = this.stringOffsets[index];
+		string = this.buf.toString('utf8', start, start + this.stringLengths[index]);
+		this.strings[index] = string;
+	}
+	return string;
+};
+
+BinaryMetabase.prototype.value = function () {
+	var tag = this.buf[this.pos++],
+		result, key;
+	switch (tag) {
+		case NULL:
+			return null;
+		case FALSE:
+			return false;
+		case TRUE:
+			return true;
+		case STRING:
+			return this.string(this.varint());
+		case NUMBER:
+			return Number(this.string(this.varint()));
+		case ARRAY:
+			result = [];
+			while (this.buf[this.pos] !== END) {
+				result.push(this.value());
+			}
+			this.pos++;
+			return result;
+		case OBJECT:
+			result = {};
+			while ((key = this.varint()) !== 0) {
+				result[this.string(key - 1)] = this.value();
+			}
+			return result;
+		default:
+			throw new Error('Corrupt binary metabase, unknown tag ' + tag + ' at ' + (this.pos - 1));
+	}
+};
+
+/**
+ * @param {String} className Fully qualified name of the class
+ * @return {Object} The class, as it would appear in the JSON metabase. undefined if it's not in the metabase
+ */
+BinaryMetabase.prototype.getClass = function (className) {
+	if (!Object.prototype.hasOwnProperty.call(this.classOffsets, className)) {
+		return undefined;
+	}
+	var result = this.decoded[className];
+	if (result === undefined) {
+		this.pos = this.classOffsets[className];
+		result = this.value();
+		this.decoded[className] = result;
+		inherited.resolve(result, this.getClass.bind(this));
+	}
+	return result;
+};
+
+BinaryMetabase.prototype.hasClass = function (className) {
+	return Object.prototype.hasOwnProperty.call(this.classOffsets, className);
+};
+
+/**
+ * @return {Object} An object shaped like the JSON metabase, whose classes get decoded as they're looked up.
+ */
+BinaryMetabase.prototype.toMetabase = function () {
+	return { classes: lazyClasses(this) };
+};
+
+/**
+ * Read a binary metabase.
+ *
+ * @param {Buffer} buf The binary metabase
+ * @return {Object} An object shaped like the JSON metabase, whose classes get decoded as they're looked up.
+ */
+function readMetabase(buf) {
+	return new BinaryMetabase(buf).toMetabase();
+}
+
+exports.BinaryMetabase = BinaryMetabase;
+exports.readMetabase = readMetabase;
@@ -6,4 +6,5 @@
 
 exports.generate = require('./generate');
 exports.metabase = require('./metabase');
+exports.prebuild = require('./prebuild');
 exports.util = require('./util');
@@ -0,0 +1,82 @@
+/**
+ * Support for metabases generated with JavaMetabaseGenerator --dedupe-inherited.
+ *
+ * In those, an interface's methods only hold the methods it declares itself, and "flattens" lists
+ * the interfaces whose methods it inherits, in the order they used to be added. The interface's
+ * full set of methods gets put together the first time its methods are looked up, so the
+ * metabase can be used just like one with the methods copied into every interface.
+ */
+
+/**
+ * @param {Object} classDef The class definition from the metabase
+ * @return {Object} The methods the class declares itself
+ */
+function ownMethods(classDef) {
+	return classDef._ownMethods || classDef.methods;
+}
+
+/**
+ * Replace the methods of a class that flattens others with a getter that adds the inherited
+ * methods on first use.
+ *
+ * @param {Object} classDef The class definition from the metabase
+ * @param {Function} lookup Returns the definition of a class by name
+ * @return {Object} classDef
+ */
+function resolve(classDef, lookup) {
+	if (!classDef || !classDef.flattens || classDef._ownMethods) {
+		return classDef;
+	}
+	var merged = null;
+	Object.defineProperty(classDef, '_ownMethods', { value: classDef.methods, enumerable: false });
+	Object.defineProperty(classDef, 'methods', {
+		enumerable: true,
+		configurable: true,
+		get: function () {
+			if (!merged) {
+				merged = {};
+				var own = classDef._ownMethods,
+					name, i, inherited, type;
+				for (name in own) {
+					merged[name] = own[name].slice();
+				}
+				for (i = 0; i < classDef.flattens.length; i++) {
+					type = lookup(classDef.flattens[i]);
+					if (!type) {
+						continue;
+					}
+					inherited = ownMethods(type);
+					for (name in inherited) {
+						merged[name] = Object.prototype.hasOwnProperty.call(merged, name)
+							? merged[name].concat(inherited[name]) : inherited[name].slice();
+					}
+				}
+			}
+			return merged;
+		},
+		set: function (value) {
+			merged = value;
+		}
+	});
+	return classDef;
+}
+
+/**
+ * Resolve all classes of a parsed JSON metabase.
+ *
+ * @param {Object} metabase The metabase
+ * @return {Object} metabase
+ */
+function resolveAll(metabase) {
+	var classes = metabase.classes,
+		lookup = function (name) {
+			return classes[name];
+		};
+	for (var name in classes) {
+		resolve(classes[name], lookup);
+	}
+	return metabase;
+}
+
+exports.resolve = resolve;
+exports.resolveAll = resolveAll;
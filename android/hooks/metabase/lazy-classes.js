@@ -0,0 +1,43 @@
+/**
+ * The "classes" object of the metabases whose classes only get read as they're looked up
+ * (see binary.js and shards.js). It behaves like the classes of a parsed JSON metabase.
+ */
+
+/**
+ * @param {Object} source Where the classes come from
+ * @param {Function} source.getClass Returns the class with the given name, undefined if there's none
+ * @param {Function} source.hasClass Whether there's a class with the given name
+ * @param {Array} source.classNames Names of all classes
+ * @return {Object} The classes by name, each read on first access
+ */
+function lazyClasses(source) {
+	return new Proxy({}, {
+		get: function (target, name) {
+			if (typeof name !== 'string') {
+				return undefined;
+			}
+			return source.getClass(name);
+		},
+		has: function (target, name) {
+			return typeof name === 'string' && source.hasClass(name);
+		},
+		ownKeys: function () {
+			return source.classNames.slice();
+		},
+		getOwnPropertyDescriptor: function (target, name) {
+			if (typeof name !== 'string' || !source.hasClass(name)) {
+				return undefined;
+			}
+			// a getter, so going over the classes by name (for...in, Object.keys) doesn't read them all
+			return {
+				get: function () {
+					return source.getClass(name);
+				},
+				enumerable: true,
+				configurable: true
+			};
+		}
+	});
+}
+
+module.exports = lazyClasses;
@@ -6,9 +6,17 @@ var _ = require('lodash'),
 	path = require('path'),
 	spawn = require('child_process').spawn,
 	crypto = require('crypto'),
+	net = require('net'),
 	zlib = require('zlib'),
 	chalk = require('chalk'),
-	util = require('./util');
+	util = require('./util'),
+	binary = require('./binary'),
+	shards = require('./shards'),
+	inherited = require('./inherited'),
+	DAEMON_START_TIMEOUT = 15000,
+	// the generator lets go of classes once they're written with --bounded-memory, so it gets by with far less
+	MAX_HEAP = '1G',
+	BOUNDED_MAX_HEAP = '256M';
 
 /**
  * Compiles the Java class that introspects APIs and generates a metabase if necessary.
@@ -56,18 +64,28 @@ function compileIfNecessary(outdir, cp, callback) {
 }
 
 /**
- * Generate the metabase as string containing JSON.
- * On completion, the callback will be called with the resulting string holding JSON output.
+ * Generate the metabase into a gzipped JSON file (or binary file, see binary.js). The generator's
+ * output is streamed straight into the file, so it never has to be held in memory as a whole.
+ * On completion, the callback will be called.
  *
- * @param {String}   additional classpath to compile with. This should point at the JAR files containing the APIs we want to generate a metabase for.
+ * @param {String}   additional classpath to compile with. This should point at the JAR (or AAR) files containing the APIs we want to generate a metabase for.
  * @param {Object}   [opts={}] Options for metabase creation
  * @param {String}   [opts.dest] - where to place the generated Java class file.
  * @param {String}   [opts.cacheDir] - where to place the cache files. Used as fallback for Java class output location if opts.dest not specified.
+ * @param {String}   [opts.fragmentsDir] - where to cache the metabase of each JAR, so only changed JARs get introspected. Not cached if not specified.
+ * @param {Boolean}  [opts.binary] - generate the binary metabase instead of JSON. Not cached per JAR.
+ * @param {Boolean}  [opts.shards] - generate the metabase split up by package (see shards.js), writing its index to the file and the packages next to it (see shardsDir). Takes precedence over opts.binary. Not cached per JAR.
+ * @param {Array}    [opts.roots] - names of the classes to generate the metabase for, along with the classes reachable from them. Not cached per JAR.
+ * @param {Boolean}  [opts.dedupeInherited] - list the interfaces an interface inherits methods from instead of copying their methods (see inherited.js)
+ * @param {Boolean}  [opts.daemon] - have the generator daemon generate it (see generateWithDaemon), falling back to running the generator if that fails
+ * @param {Boolean}  [opts.boundedMemory] - have the generator let go of classes once they're written, and run it with a smaller heap
+ * @param {Boolean}  [opts.verbose] - have the generator log the classes it leaves out because they fail to parse
+ * @param {String}   file Where to write the gzipped metabase. Only written once the metabase is complete.
  * @param {Function} callback Executed upon completion or error
  *
  * @returns {void}
  **/
-function generate(classPath, opts, callback) {
+function generate(classPath, opts, file, callback) {
 	classPath = typeof(classPath)==='string' ? [classPath] : classPath;
 
 	var dest = opts.dest || opts.cacheDir || 'build',
@@ -75,40 +93,287 @@ function generate(classPath, opts, callback) {
 
 	compileIfNecessary(dest, cp.join(path.delimiter), function(err){
 		if (err) return callback(err);
-		// Add the 3rd-party libs to classpath when running
-		var p = spawn('java',['-Xmx1G', '-classpath', cp.concat(classPath).join(path.delimiter), 'JavaMetabaseGenerator'],{env:process.env}),
-			out = '',
-			err = '';
-		p.stdout.on('data',function(buf){
-			out += buf.toString();
+		var args = [];
+		if (opts.shards) {
+			args.push('--shards=' + path.resolve(shardsDir(file)));
+		} else if (opts.binary) {
+			args.push('--format=binary');
+		}
+		if (opts.dedupeInherited) {
+			args.push('--dedupe-inherited');
+		}
+		if (opts.boundedMemory) {
+			args.push('--bounded-memory');
+		}
+		if (opts.verbose) {
+			args.push('--verbose');
+		}
+		if (opts.roots) {
+			var rootsFile = file + '.roots',
+				finished = callback;
+			fs.writeFileSync(rootsFile, opts.roots.join('\n'));
+			args.push('--roots=' + path.resolve(rootsFile));
+			// only needed while the generator runs
+			callback = function () {
+				var results = arguments;
+				fs.unlink(rootsFile, function () {
+					finished.apply(null, results);
+				});
+			};
+		}
+		if (opts.fragmentsDir && !opts.binary && !opts.shards && !opts.roots) {
+			args.push('--fragments=' + path.resolve(opts.fragmentsDir));
+		}
+		// the index of a sharded metabase is JSON, and gets gzipped like it
+		var isBinary = opts.binary && !opts.shards;
+		if (!opts.daemon) {
+			return runGenerator(cp.concat(classPath), args, isBinary, file, callback);
+		}
+		generateWithDaemon(classPath, cp, dest, args, isBinary, file, function(err) {
+			if (err) {
+				util.logger.debug('Metabase generator daemon failed (' + err + '), running the generator instead');
+				return runGenerator(cp.concat(classPath), args, isBinary, file, callback);
+			}
+			callback();
 		});
+	});
+}
 
-		p.stderr.on('data',function(buf){
-			err += buf.toString();
-		});
+/**
+ * @param {String} file The index of a sharded metabase
+ * @return {String} The directory holding the files of its packages
+ */
+function shardsDir(file) {
+	return file.replace(/\.json\.gz$/, '');
+}
 
-		p.on('close',function(exitCode){
-			callback(exitCode===0 ? null : err, out);
-		});
+/**
+ * Run the generator, streaming its output into the file.
+ *
+ * @param {Array}    cp The classpath to run the generator with: its own, followed by the JAR files to generate the metabase for
+ * @param {Array}    args Arguments for the generator
+ * @param {Boolean}  binary Whether the generator writes the binary metabase, which doesn't get gzipped
+ * @param {String}   file Where to write the metabase. Only written once the metabase is complete.
+ * @param {Function} callback Executed upon completion or error
+ *
+ * @returns {void}
+ **/
+function runGenerator(cp, args, binary, file, callback) {
+	var maxHeap = args.indexOf('--bounded-memory') !== -1 ? BOUNDED_MAX_HEAP : MAX_HEAP,
+		p = spawn('java', ['-Xmx' + maxHeap, '-classpath', cp.join(path.delimiter), 'JavaMetabaseGenerator'].concat(args), {env:process.env}),
+		tmpFile = file + '.tmp',
+		out = fs.createWriteStream(tmpFile),
+		exitCode = null,
+		written = false,
+		err = '';
+
+	function done() {
+		if (exitCode === null || !written) {
+			return;
+		}
+		if (exitCode !== 0) {
+			fs.unlink(tmpFile, function() {
+				callback(err || 'Failed to generate metabase');
+			});
+			return;
+		}
+		if (err) {
+			util.logger.debug(err.trim());
+		}
+		fs.rename(tmpFile, file, callback);
+	}
+
+	if (binary) {
+		p.stdout.pipe(out);
+	} else {
+		p.stdout.pipe(zlib.createGzip()).pipe(out);
+	}
+	out.on('finish', function() {
+		written = true;
+		done();
+	});
+	out.on('error', function(e) {
+		p.kill();
+		callback(e);
+	});
+
+	p.stderr.on('data',function(buf){
+		err += buf.toString();
+	});
+
+	p.on('close',function(code){
+		exitCode = code;
+		done();
 	});
 }
 
 /**
- * Generate the metabase as JSON.
- * On completion, the callback will be called with the parsed JSON output (a JSObject).
+ * Have the generator daemon generate the metabase, starting it if it isn't running. The daemon
+ * (JavaMetabaseGenerator --daemon) keeps running across builds until it's been idle for half an
+ * hour, so a build doesn't wait for a JVM to start and warm up, and the classes it parsed are
+ * reused while the JARs don't change. It listens on a local port, which it writes to a state file
+ * next to the generator's class file, along with the token requests need to send.
  *
- * @param {String}   additional classpath to compile with. This should point at the JAR files containing the APIs we want to generate a metabase for.
- * @param {Object}   [opts={}] Options for metabase creation
- * @param {String}   [opts.dest] - where to place the generated Java class file.
- * @param {String}   [opts.cacheDir] - where to place the cache files. Used as fallback for Java class output location if opts.dest not specified.
+ * @param {Array}    classPath The JAR files to generate the metabase for
+ * @param {Array}    cp The generator's own classpath
+ * @param {String}   dest Where the generator's class file is
+ * @param {Array}    args Arguments for the generator
+ * @param {Boolean}  binary Whether the generator writes the binary metabase, which doesn't get gzipped
+ * @param {String}   file Where to write the metabase. Only written once the metabase is complete.
  * @param {Function} callback Executed upon completion or error
  *
  * @returns {void}
  **/
-function generateJSON(classPath, opts, callback) {
-	generate(classPath, opts, function(err, buffer) {
-		if (err) return callback(err);
-		return callback(null, JSON.parse(buffer));
+function generateWithDaemon(classPath, cp, dest, args, binary, file, callback) {
+	var stateFile = path.join(dest, 'JavaMetabaseGenerator.daemon.json'),
+		// so a daemon running an older generator gets replaced
+		version = fs.readFileSync(path.join(dest, 'JavaMetabaseGenerator.sha'), 'utf8'),
+		tmpFile = file + '.tmp',
+		request = {
+			// the daemon doesn't share our working directory
+			classpath: classPath.map(function(jar) {
+				return path.resolve(jar);
+			}),
+			args: args,
+			output: path.resolve(tmpFile),
+			gzip: !binary
+		};
+
+	function start() {
+		// through exports, so specs can stand in for the JVM
+		exports.startDaemon(stateFile, version, cp, function(err, state) {
+			if (err) {
+				return callback(err);
+			}
+			sendToDaemon(state, request, done);
+		});
+	}
+
+	function done(err, response) {
+		if (!err && !response.ok) {
+			err = new Error(response.error);
+		}
+		if (response && response.log) {
+			util.logger.debug(response.log.trim());
+		}
+		if (err) {
+			return fs.unlink(tmpFile, function() {
+				callback(err);
+			});
+		}
+		fs.rename(tmpFile, file, callback);
+	}
+
+	var state = readDaemonState(stateFile);
+	if (!state) {
+		return start();
+	}
+	if (state.version !== version) {
+		return sendToDaemon(state, { stop: true }, start);
+	}
+	sendToDaemon(state, request, function(err, response) {
+		if (err) {
+			// it's not running anymore
+			return start();
+		}
+		done(null, response);
+	});
+}
+
+/**
+ * @param {String} stateFile Where the daemon writes its port and token
+ * @return {Object} The daemon's state, null if there's none
+ */
+function readDaemonState(stateFile) {
+	try {
+		return JSON.parse(fs.readFileSync(stateFile, 'utf8'));
+	} catch (e) {
+		return null;
+	}
+}
+
+/**
+ * Start the generator daemon, and wait until it's listening.
+ *
+ * @param {String}   stateFile Where the daemon writes its port and token
+ * @param {String}   version The version of the generator
+ * @param {Array}    cp The generator's own classpath
+ * @param {Function} callback Executed with the daemon's state once it's listening, or an error
+ *
+ * @returns {void}
+ **/
+function startDaemon(stateFile, version, cp, callback) {
+	try {
+		fs.unlinkSync(stateFile);
+	} catch (e) {
+		// there's none
+	}
+	var p = spawn('java', ['-Xmx' + MAX_HEAP, '-classpath', cp.join(path.delimiter), 'JavaMetabaseGenerator',
+			'--daemon=' + path.resolve(stateFile), '--daemon-version=' + version], {env:process.env, detached:true, stdio:'ignore'}),
+		started = Date.now(),
+		failed = null;
+
+	p.on('error', function(e) {
+		failed = e;
+	});
+	p.on('exit', function(code) {
+		failed = failed || new Error('Metabase generator daemon exited with code ' + code);
+	});
+	// don't keep the build running
+	p.unref();
+
+	(function poll() {
+		var state = readDaemonState(stateFile);
+		if (state && state.version === version) {
+			return callback(null, state);
+		}
+		if (failed) {
+			return callback(failed);
+		}
+		if (Date.now() - started > DAEMON_START_TIMEOUT) {
+			return callback(new Error('Timed out waiting for the metabase generator daemon to start'));
+		}
+		setTimeout(poll, 100);
+	})();
+}
+
+/**
+ * Send a request to the generator daemon and wait for its response.
+ *
+ * @param {Object}   state The daemon's state
+ * @param {Object}   request The request (see JavaMetabaseGenerator.serve), without the token
+ * @param {Function} callback Executed with the daemon's response, or an error if we couldn't reach it
+ *
+ * @returns {void}
+ **/
+function sendToDaemon(state, request, callback) {
+	var socket = net.connect(state.port, '127.0.0.1'),
+		response = '',
+		finished = false;
+
+	function finish(err, result) {
+		if (!finished) {
+			finished = true;
+			callback(err, result);
+		}
+	}
+
+	socket.setEncoding('utf8');
+	socket.on('connect', function() {
+		socket.write(JSON.stringify(_.extend({ token: state.token }, request)) + '\n');
+	});
+	socket.on('data', function(data) {
+		response += data;
+	});
+	socket.on('error', finish);
+	socket.on('close', function() {
+		var result;
+		try {
+			result = JSON.parse(response);
+		} catch (e) {
+			return finish(new Error('No response from the metabase generator daemon'));
+		}
+		finish(null, result);
 	});
 }
 
@@ -122,6 +387,12 @@ function generateJSON(classPath, opts, callback) {
  * @param {String}   [opts.isTest] - flag to note that this is being executed through tests to avoid messing with "real" cached files. Defaults to 'not-test'
  * @param {String}   [opts.cacheDir] - where to place the cached files. Defaults to tmpdir.
  * @param {String}   [opts.dest] - where to place the generated Java class file. opts.cacheDir is used as fallback if specified. Otherwise defaults to 'build'
+ * @param {Boolean}  [opts.binary] - use the binary metabase, whose classes only get decoded when they're looked up (see binary.js)
+ * @param {Boolean}  [opts.shards] - use a metabase split up by package, whose packages only get read when their classes are looked up (see shards.js)
+ * @param {Array}    [opts.roots] - only include these classes, and the classes reachable from them: superclasses, interfaces, types of methods and fields, enclosing and nested classes
+ * @param {Boolean}  [opts.dedupeInherited] - store the methods interfaces inherit once, on the interface declaring them. Interfaces get their inherited methods added when their methods are first looked up.
+ * @param {Boolean}  [opts.daemon] - keep the generator running in the background between builds, rather than starting it for each metabase
+ * @param {Boolean}  [opts.boundedMemory] - keep the generator's memory use down (for machines running several builds at once), rather than holding on to every class it parsed. The peak heap usage gets logged.
  * @param {Function} callback Executed upon completion or error
  *
  * @returns {void}
@@ -142,7 +413,10 @@ function loadMetabase(classpathToAdd, opts, callback) {
 	});
 
 	var parsedChecksum = calculateCacheToken(classpathToAdd, opts);
-	opts.cacheFile = path.join(opts.cacheDir, 'hyperloop_' + opts.platform + '_metabase.' + parsedChecksum + '.json.gz');
+	opts.cacheFile = path.join(opts.cacheDir, 'hyperloop_' + opts.platform + '_metabase.' + parsedChecksum
+		+ (opts.dedupeInherited ? '.dedupe' : '') + (opts.shards ? '.shards.json.gz' : opts.binary ? '.hlmb' : '.json.gz'));
+	// JARs that didn't change since the last metabase was generated (android.jar in particular) reuse their part of it
+	opts.fragmentsDir = path.join(opts.cacheDir, 'hyperloop_metabase_fragments', opts.isTest + '-' + generatorChecksum().substr(0, 16));
 
 	var cacheFile = opts.cacheFile,
 		thisTime, lastTime;
@@ -162,31 +436,27 @@ function loadMetabase(classpathToAdd, opts, callback) {
 		//	(opts.force ? '' : 'This file will be cached and will execute faster on subsequent builds.')
 		//);
 
+		removeStaleFragmentDirs(opts.fragmentsDir);
+
 		// generate a new metabase from classpath
 		// first argument is for additional classpath
-		generateJSON(classpathToAdd, opts, function(err,metabase) {
+		generate(classpathToAdd, opts, cacheFile, function(err) {
 			if (err) {
 				return callback(err);
-			} else if (!metabase) {
-				return callback('Failed to generate metabase');
 			}
 
 			thisTime = Date.now();
 			//spinner.stop();
 			util.logger.info('Generated AST cache file at', cacheFile, 'in', timeDiff(thisTime, lastTime), 'seconds');
 
-			zlib.gzip(JSON.stringify(metabase, null, '  '), function(err, buf) {
-				fs.writeFile(cacheFile, buf, function() {
-					return callback(null, metabase);
-				});
-			});
+			readCache(cacheFile, callback);
 		});
 	}
 }
 
 /**
- * Calculate cache token based on classpath (JARs we're introspecting), testing
- * flag, and contents of the metabase generator Java file.
+ * Calculate cache token based on classpath (JARs we're introspecting), root classes
+ * (if any), testing flag, and contents of the metabase generator Java file.
  *
  * @param {Array|string} classPath Java CLASSPATH passed to the compiler
  * @param {Object} opts Options object
@@ -206,11 +476,55 @@ function calculateCacheToken(classPath, opts) {
 	});
 	return crypto.createHash('sha1').update(
 		JSON.stringify(classPathContentHashes) +
+		(opts.roots ? JSON.stringify(opts.roots.slice().sort()) : '') +
 		opts.isTest +
 		fs.readFileSync(path.join(__dirname, 'src', 'JavaMetabaseGenerator.java'), 'utf8')
 	).digest('hex');
 }
 
+/**
+ * Delete the metabase fragments generated by other versions of the generator, which
+ * never get reused. The generator itself deletes the fragments of JARs that went away.
+ *
+ * @param {String} fragmentsDir The fragments directory of the current generator
+ *
+ * @returns {void}
+ */
+function removeStaleFragmentDirs(fragmentsDir) {
+	var parent = path.dirname(fragmentsDir),
+		current = path.basename(fragmentsDir),
+		prefix = current.substr(0, current.lastIndexOf('-') + 1);
+	if (!fs.existsSync(parent)) {
+		return;
+	}
+	fs.readdirSync(parent).forEach(function (name) {
+		if (name === current || name.indexOf(prefix) !== 0) {
+			return;
+		}
+		var dir = path.join(parent, name);
+		try {
+			fs.readdirSync(dir).forEach(function (file) {
+				fs.unlinkSync(path.join(dir, file));
+			});
+			fs.rmdirSync(dir);
+		} catch (e) {
+			util.logger.debug('Could not delete stale metabase fragments at ' + dir + ': ' + e.message);
+		}
+	});
+}
+
+/**
+ * Calculate a checksum of the metabase generator, so metabase fragments generated
+ * by a different version of it don't get reused.
+ *
+ * @return {string} The calculated checksum
+ */
+function generatorChecksum() {
+	return crypto.createHash('sha1').update(
+		fs.readFileSync(path.join(__dirname, 'src', 'JavaMetabaseGenerator.java'), 'utf8')
+	).digest('hex');
+}
+
 /**
  * Load the metabase from a cache file
  *
@@ -221,19 +535,50 @@ function calculateCacheToken(classPath, opts) {
  */
 function loadCache(cacheFile, callback) {
 	util.logger.info('Using system metabase cache file at', chalk.yellow(cacheFile));
-	try {
-		fs.readFile(cacheFile, function(err, buf) {
-			if (/\.gz$/.test(cacheFile)) {
-				zlib.gunzip(buf, function(err, buf) {
-					return callback(null, JSON.parse(String(buf)));
-				});
-			} else {
-				return callback(null, JSON.parse(String(buf)));
+	readCache(cacheFile, callback);
+}
+
+/**
+ * Read and parse a metabase file
+ *
+ * @param {String} cacheFile The location of the metabase, gzipped if it ends in .gz, binary if it ends in .hlmb, the index of a sharded metabase if it ends in .shards.json.gz
+ * @param {Function} callback Executed upon completion or error
+ *
+ * @returns {void}
+ */
+function readCache(cacheFile, callback) {
+	fs.readFile(cacheFile, function(err, buf) {
+		if (err) {
+			return callback(err);
+		}
+		function parse(err, buf) {
+			if (err) {
+				return callback(err);
 			}
-		});
-	} catch(E) {
-		return callback(E);
-	}
+			var metabase;
+			try {
+				metabase = JSON.parse(String(buf));
+				metabase = /\.shards\.json\.gz$/.test(cacheFile)
+					? shards.readMetabase(metabase, shardsDir(cacheFile)) : inherited.resolveAll(metabase);
+			} catch (E) {
+				return callback(E);
+			}
+			callback(null, metabase);
+		}
+		if (/\.hlmb$/.test(cacheFile)) {
+			var metabase;
+			try {
+				metabase = binary.readMetabase(buf);
+			} catch (E) {
+				return callback(E);
+			}
+			callback(null, metabase);
+		} else if (/\.gz$/.test(cacheFile)) {
+			zlib.gunzip(buf, parse);
+		} else {
+			parse(null, buf);
+		}
+	});
 }
 
 function timeDiff(thisTime, lastTime) {
@@ -242,6 +587,8 @@ function timeDiff(thisTime, lastTime) {
 
 // module interface
 exports.loadMetabase = loadMetabase;
+exports.generateWithDaemon = generateWithDaemon;
+exports.startDaemon = startDaemon;
 
 // standalone metabase generator
 if (!module.parent) {
@@ -0,0 +1,527 @@
+/**
+ * Android hyperloop ahead-of-time subclass/interface implementation generation.
+ *
+ * Hyperloop.extend() and Hyperloop.implement() generate classes at runtime (with dexmaker and
+ * java.lang.reflect.Proxy respectively). For the types an app's JS is known to extend or implement
+ * we generate equivalent Java sources at build time instead, which get compiled into the app and
+ * are picked up by the runtime in place of generating a class.
+ *
+ * Like the classes generated at runtime, a subclass only intercepts the methods JS overrides (and
+ * abstract ones), so we generate one for every set of overridden method names the reference scan
+ * found for a type.
+ */
+var crypto = require('crypto'),
+	fs = require('fs-extra'),
+	path = require('path'),
+	spawn = require('child_process').spawn,
+	ejs = require('ejs'),
+	util = require('./util'),
+	PREBUILT_TEMPLATE = fs.readFileSync(path.join(__dirname, 'templates', 'prebuilt.ejs')).toString(),
+	PACKAGE_NAME = 'hyperloop.prebuilt',
+	SUBCLASS_SUFFIX = '_Subclass',
+	IMPLEMENTATION_SUFFIX = '_Impl',
+	PRIMITIVES = {
+		'boolean': 'Z',
+		'byte': 'B',
+		'char': 'C',
+		'short': 'S',
+		'int': 'I',
+		'long': 'J',
+		'float': 'F',
+		'double': 'D',
+		'void': 'V'
+	},
+	// Used when java.lang.Object isn't part of the metabase, so these always go through the handler
+	OBJECT_METHODS = [
+		{ name: 'equals', args: [{ type: 'java.lang.Object' }], returnType: 'boolean', attributes: ['public'], exceptions: [] },
+		{ name: 'hashCode', args: [], returnType: 'int', attributes: ['public'], exceptions: [] },
+		{ name: 'toString', args: [], returnType: 'java.lang.String', attributes: ['public'], exceptions: [] }
+	];
+
+/**
+ * Turns a fully qualified class name into a legal, unique simple class name.
+ * Must match PrebuiltClasses.mangle() in the runtime.
+ *
+ * @param {String} className Java class name, using '$' for nested classes
+ *
+ * @returns {String} mangled name
+ **/
+function mangle(className) {
+	return className.replace(/_/g, '_1').replace(/\$/g, '_2').replace(/\./g, '_');
+}
+
+/**
+ * Short digest of a set of overridden method names, which tells the subclasses generated for the
+ * different sets apart. Must match GeneratedClassCache.digest() in the runtime.
+ *
+ * @param {Array[String]} overrides Sorted names of the overridden methods
+ *
+ * @returns {String} digest
+ **/
+function overridesDigest(overrides) {
+	var hash = crypto.createHash('sha1');
+	overrides.forEach(function (name) {
+		hash.update(name + ',', 'utf8');
+	});
+	return hash.digest('hex').slice(0, 16);
+}
+
+/**
+ * @param {String} type Java type as used in the metabase, i.e. 'int', 'java.lang.String[]' or 'android.view.View$OnClickListener'
+ *
+ * @returns {String} the type as it has to be written in Java source
+ **/
+function sourceType(type) {
+	return type.replace(/\$/g, '.');
+}
+
+/**
+ * @param {String} type Java type as used in the metabase
+ *
+ * @returns {String} what Class.getName() returns for the type
+ **/
+function binaryName(type) {
+	var dimensions = 0,
+		descriptor = '';
+	while (type.slice(-2) === '[]') {
+		type = type.slice(0, -2);
+		dimensions++;
+	}
+	if (dimensions === 0) {
+		return type;
+	}
+	descriptor = PRIMITIVES[type] || ('L' + type + ';');
+	return new Array(dimensions + 1).join('[') + descriptor;
+}
+
+/**
+ * Name of the method dexmaker's ProxyBuilder.callSuper() looks up to call the super implementation.
+ *
+ * @param {Object} method The method definition from the metabase.
+ *
+ * @returns {String} accessor name
+ **/
+function superMethodName(method) {
+	return 'super$' + method.name + '$' + binaryName(method.returnType).replace(/[.\[;]/g, '_');
+}
+
+/**
+ * @param {String} returnType Java type as used in the metabase
+ *
+ * @returns {String} expression converting the handler's result (held in "result") to the return type
+ **/
+function returnExpression(returnType) {
+	switch (returnType) {
+		case 'boolean':
+			return 'result != null && ((Boolean) result).booleanValue()';
+		case 'char':
+			return 'result == null ? \'\\0\' : ((Character) result).charValue()';
+		case 'byte':
+		case 'short':
+		case 'int':
+		case 'long':
+		case 'float':
+		case 'double':
+			return 'result == null ? (' + returnType + ') 0 : ((Number) result).' + returnType + 'Value()';
+		default:
+			return '(' + sourceType(returnType) + ') result';
+	}
+}
+
+/**
+ * Whether generated code in another package can refer to the given type.
+ *
+ * @param {Object} metabaseJSON The generated metabase
+ * @param {String} type Java type as used in the metabase
+ *
+ * @returns {Boolean}
+ **/
+function isAccessible(metabaseJSON, type) {
+	var name = type.replace(/(\[\])+$/, ''),
+		parts,
+		i;
+	if (PRIMITIVES[name]) {
+		return true;
+	}
+	// the type and all its enclosing types have to be public
+	parts = name.split('$');
+	for (i = 1; i <= parts.length; i++) {
+		var classDef = metabaseJSON.classes[parts.slice(0, i).join('$')];
+		if (!classDef || classDef.attributes.indexOf('public') === -1) {
+			return false;
+		}
+	}
+	return true;
+}
+
+/**
+ * Whether generated code can refer to all types a method or constructor uses.
+ **/
+function isMethodAccessible(metabaseJSON, method) {
+	var types = [method.returnType].concat(method.args.map(function (arg) {
+		return arg.type;
+	}), method.exceptions || []);
+	return types.every(function (type) {
+		return isAccessible(metabaseJSON, type);
+	});
+}
+
+function methodKey(method) {
+	return method.name + '(' + method.args.map(function (arg) {
+		return arg.type;
+	}).join(',') + ')';
+}
+
+/**
+ * Whether one of the overloads looks like a compiler generated bridge for another one (same name
+ * and arity, but java.lang.Object in place of some of the other's types). The metabase doesn't
+ * tell us which methods are synthetic, so we can't know which of the two to override.
+ **/
+function hasBridgeLikeOverloads(overloads) {
+	var instanceMethods = overloads.filter(function (method) {
+		return method.instance;
+	});
+	return instanceMethods.some(function (a) {
+		return instanceMethods.some(function (b) {
+			if (a === b || a.args.length !== b.args.length || methodKey(a) === methodKey(b)) {
+				return false;
+			}
+			return a.args.every(function (arg, i) {
+				return arg.type === b.args[i].type || (arg.type === 'java.lang.Object' && !PRIMITIVES[b.args[i].type]);
+			});
+		});
+	});
+}
+
+/**
+ * Collects the methods a generated subclass/implementation has to override, walking up the class
+ * hierarchy the same way dexmaker does: the class' own methods first, then its superclasses', then
+ * those of all implemented interfaces. The first declaration of a signature wins.
+ *
+ * @param {Object} metabaseJSON The generated metabase
+ * @param {String} className The class or interface to generate for
+ * @param {Array[String]} [overrides] Names of the methods JS overrides, all others but abstract ones
+ * are left alone. Leave out to override every method.
+ *
+ * @returns {Array|null} methods to override, or null if we can't safely generate the class
+ **/
+function collectMethods(metabaseJSON, className, overrides) {
+	var methods = [],
+		seen = {},
+		interfaces = [],
+		types = [],
+		current = className,
+		safe = true;
+
+	while (current && metabaseJSON.classes[current]) {
+		// like java.lang.reflect.Proxy, interface implementations only handle equals/hashCode/toString of Object's methods
+		if (current === 'java.lang.Object' && metabaseJSON.classes[className].metatype === 'interface') {
+			break;
+		}
+		types.push(current);
+		interfaces = interfaces.concat(metabaseJSON.classes[current].interfaces || []);
+		current = metabaseJSON.classes[current].superClass;
+	}
+	// interfaces (and their super interfaces) come after the whole superclass chain
+	for (var i = 0; i < interfaces.length; i++) {
+		var interfaceDef = metabaseJSON.classes[interfaces[i]];
+		if (!interfaceDef) {
+			return null;
+		}
+		if (types.indexOf(interfaces[i]) === -1) {
+			types.push(interfaces[i]);
+			interfaces = interfaces.concat(interfaceDef.interfaces || []);
+		}
+	}
+
+	types.forEach(function (typeName) {
+		var classDef = metabaseJSON.classes[typeName];
+		Object.keys(classDef.methods).forEach(function (methodName) {
+			var overloads = classDef.methods[methodName],
+				declared = {};
+			if (methodName === '<init>' || methodName === '<clinit>' || methodName === 'finalize') {
+				return;
+			}
+			if (hasBridgeLikeOverloads(overloads.filter(function (method) {
+				return isIntercepted(method, overrides);
+			}))) {
+				safe = false;
+				return;
+			}
+			overloads.forEach(function (method) {
+				var key = methodKey(method);
+				if (declared[key]) {
+					// two declarations differing in return type only: prefer the one that isn't a bridge
+					if (declared[key].definition.returnType === 'java.lang.Object' && seen[key] === declared[key]) {
+						seen[key] = collectedMethod(method, typeName);
+						methods[methods.indexOf(declared[key])] = seen[key];
+						declared[key] = seen[key];
+					} else if (method.returnType !== 'java.lang.Object') {
+						safe = false;
+					}
+					return;
+				}
+				if (seen[key] !== undefined) {
+					return;
+				}
+				if (method.attributes.indexOf('static') !== -1) {
+					return;
+				}
+				if (method.attributes.indexOf('final') !== -1 || method.attributes.indexOf('private') !== -1) {
+					// can't override it, and neither can anything further up
+					seen[key] = null;
+					return;
+				}
+				if (classDef.metatype !== 'interface' && method.attributes.indexOf('public') === -1
+					&& method.attributes.indexOf('protected') === -1) {
+					// package-private: can't be overridden from hyperloop.prebuilt, so
+					// no class there can implement it if it's abstract
+					if (method.attributes.indexOf('abstract') !== -1) {
+						safe = false;
+					}
+					seen[key] = null;
+					return;
+				}
+				seen[key] = declared[key] = collectedMethod(method, typeName);
+				methods.push(seen[key]);
+			});
+		});
+	});
+
+	if (types.indexOf('java.lang.Object') === -1) {
+		OBJECT_METHODS.forEach(function (method) {
+			if (seen[methodKey(method)] === undefined) {
+				methods.push(collectedMethod(method, 'java.lang.Object'));
+			}
+		});
+	}
+
+	methods = methods.filter(function (method) {
+		return isIntercepted(method.definition, overrides);
+	});
+	if (!safe || !methods.every(function (method) {
+		return isMethodAccessible(metabaseJSON, method.definition);
+	})) {
+		return null;
+	}
+	return methods;
+}
+
+/**
+ * Whether a generated class has to override the given method. The same rule as
+ * GeneratedClassCache.methodsToIntercept() in the runtime.
+ **/
+function isIntercepted(method, overrides) {
+	return !overrides || overrides.indexOf(method.name) !== -1 || method.attributes.indexOf('abstract') !== -1;
+}
+
+function collectedMethod(method, declaringClass) {
+	return {
+		definition: method,
+		declaringClass: declaringClass
+	};
+}
+
+function throwsClause(exceptions) {
+	if (!exceptions || exceptions.length === 0) {
+		return '';
+	}
+	return ' throws ' + exceptions.map(sourceType).join(', ');
+}
+
+function params(args) {
+	return args.map(function (arg, i) {
+		return {
+			type: sourceType(arg.type),
+			name: 'a' + i
+		};
+	});
+}
+
+/**
+ * Builds the model the prebuilt template renders for a class or interface.
+ *
+ * @param {Object} metabaseJSON The generated metabase
+ * @param {String} className The class to generate a subclass or interface to generate an implementation for
+ * @param {Array[String]} [overrides] Sorted names of the methods JS overrides, required for subclasses
+ *
+ * @returns {Object|null} template model, or null if we can't generate code for the type
+ **/
+function createDefinition(metabaseJSON, className, overrides) {
+	var classDef = metabaseJSON.classes[className],
+		isInterface,
+		constructors = [],
+		methods;
+
+	if (!classDef || !isAccessible(metabaseJSON, className) || classDef.attributes.indexOf('final') !== -1) {
+		return null;
+	}
+	isInterface = classDef.metatype === 'interface';
+
+	if (!isInterface) {
+		constructors = (classDef.methods['<init>'] || []).filter(function (constructor) {
+			return (constructor.attributes.indexOf('public') !== -1 || constructor.attributes.indexOf('protected') !== -1)
+				&& isMethodAccessible(metabaseJSON, constructor);
+		});
+		// Inner (non-static nested) classes take their enclosing instance as first argument, we only support static ones
+		if (className.indexOf('$') !== -1 && constructors.every(function (constructor) {
+			return constructor.args.length > 0 && constructor.args[0].type === className.slice(0, className.lastIndexOf('$'));
+		})) {
+			return null;
+		}
+		if (constructors.length === 0) {
+			return null;
+		}
+	}
+
+	methods = collectMethods(metabaseJSON, className, isInterface ? null : overrides);
+	if (!methods) {
+		return null;
+	}
+
+	return {
+		packageName: PACKAGE_NAME,
+		simpleName: mangle(className) + (isInterface ? IMPLEMENTATION_SUFFIX : SUBCLASS_SUFFIX + '_' + overridesDigest(overrides)),
+		className: className,
+		baseName: sourceType(className),
+		isInterface: isInterface,
+		constructors: constructors.map(function (constructor) {
+			return {
+				params: params(constructor.args),
+				throwsClause: throwsClause(constructor.exceptions)
+			};
+		}),
+		methods: methods.map(function (method) {
+			var definition = method.definition;
+			return {
+				name: definition.name,
+				declaringClass: sourceType(method.declaringClass),
+				// implementations of interface methods have to be public
+				visibility: (isInterface || definition.attributes.indexOf('public') !== -1) ? 'public' : 'protected',
+				abstract: isInterface || definition.attributes.indexOf('abstract') !== -1,
+				returnType: sourceType(definition.returnType),
+				returnExpression: returnExpression(definition.returnType),
+				params: params(definition.args),
+				throwsClause: throwsClause(definition.exceptions),
+				superName: superMethodName(definition)
+			};
+		})
+	};
+}
+
+/**
+ * Generates Java sources of subclasses and interface implementations.
+ *
+ * @param {Object} metabaseJSON The generated metabase
+ * @param {Array[String]} extendedClasses Classes to generate subclasses for
+ * @param {Array[String]} implementedClasses Interfaces to generate implementations for
+ * @param {Object} [overrideSets] The sorted sets of overridden method names to generate subclasses
+ * for, by class name. Classes without any are left to be generated at runtime.
+ *
+ * @returns {Object} map of file names (relative to the package directory) to their source; types we
+ * can't generate code for are left out so they're generated at runtime as usual
+ **/
+function generateSources(metabaseJSON, extendedClasses, implementedClasses, overrideSets) {
+	var sources = {};
+
+	function add(className, overrides) {
+		var definition = createDefinition(metabaseJSON, className, overrides);
+		if (!definition) {
+			util.logger.trace('Not pre-generating class for ' + className + ', it will be generated at runtime');
+			return;
+		}
+		sources[definition.simpleName + '.java'] = ejs.render(PREBUILT_TEMPLATE, {definition: definition});
+	}
+
+	extendedClasses.forEach(function (className) {
+		var sets = (overrideSets && overrideSets[className]) || [];
+		if (sets.length === 0) {
+			util.logger.trace('Not pre-generating class for ' + className + ', its overrides are only known at runtime');
+		}
+		sets.forEach(function (overrides) {
+			add(className, overrides);
+		});
+	});
+	implementedClasses.forEach(function (className) {
+		add(className);
+	});
+	return sources;
+}
+
+/**
+ * Compiles the generated sources to verify them, dropping any that don't compile (i.e. because
+ * they clash with generic signatures the metabase doesn't tell us about) so those types just keep
+ * being generated at runtime.
+ *
+ * @param {String} sourceDir Directory holding the generated sources (of the prebuilt package)
+ * @param {Array[String]} classPath JARs the app is compiled against
+ * @param {String} outDir Scratch directory for the compiled classes
+ * @param {Function} callback Executed upon completion with an error or the array of file names that were dropped
+ *
+ * @returns {void}
+ **/
+function verifySources(sourceDir, classPath, outDir, callback) {
+	var dropped = [],
+		attempts = 0;
+
+	function compile() {
+		var files = fs.readdirSync(sourceDir).filter(function (file) {
+				return path.extname(file) === '.java';
+			}),
+			argsFile = path.join(outDir, 'sources.txt'),
+			err = '',
+			p;
+
+		if (files.length === 0) {
+			return callback(null, dropped);
+		}
+		fs.emptyDirSync(outDir);
+		// pass the (possibly long) list of files in an @argfile to stay within command line limits
+		fs.writeFileSync(argsFile, files.map(function (file) {
+			return '"' + path.join(sourceDir, file).replace(/\\/g, '/') + '"';
+		}).join('\n'));
+
+		p = spawn('javac', ['-J-Duser.language=en', '-source', '1.8', '-target', '1.8', '-nowarn', '-Xmaxerrs', '10000',
+			'-cp', classPath.join(path.delimiter), '-d', outDir, '@' + argsFile], {env: process.env});
+		p.stdout.on('data', function () {});
+		p.stderr.on('data', function (buf) {
+			err += buf.toString();
+		});
+		p.on('error', function (e) {
+			callback(e);
+		});
+		p.on('close', function (exitCode) {
+			var failed = [],
+				re = /^(.+\.java):\d+: error:/gm,
+				match;
+			if (exitCode === 0) {
+				return callback(null, dropped);
+			}
+			while ((match = re.exec(err)) !== null) {
+				var file = path.basename(match[1]);
+				if (files.indexOf(file) !== -1 && failed.indexOf(file) === -1) {
+					failed.push(file);
+				}
+			}
+			// if we can't tell what's wrong, give up on all of them
+			if (failed.length === 0 || ++attempts >= 3) {
+				failed = files;
+			}
+			failed.forEach(function (file) {
+				fs.removeSync(path.join(sourceDir, file));
+			});
+			dropped = dropped.concat(failed);
+			compile();
+		});
+	}
+
+	fs.ensureDirSync(outDir);
+	compile();
+}
+
+exports.PACKAGE_NAME = PACKAGE_NAME;
+exports.mangle = mangle;
+exports.overridesDigest = overridesDigest;
+exports.createDefinition = createDefinition;
+exports.generateSources = generateSources;
+exports.verifySources = verifySources;
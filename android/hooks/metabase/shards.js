@@ -0,0 +1,103 @@
+/**
+ * Reader for the sharded metabase written by JavaMetabaseGenerator --shards=DIR.
+ *
+ * Only the index is read up front. The files holding the classes of a package are read the
+ * first time one of its classes is looked up, so a build only reads (and keeps in memory) the
+ * packages the app actually uses. The result can be used in place of a parsed JSON metabase.
+ */
+var fs = require('fs'),
+	path = require('path'),
+	zlib = require('zlib'),
+	inherited = require('./inherited'),
+	lazyClasses = require('./lazy-classes'),
+	VERSION = 1;
+
+/**
+ * @param {Object} index The parsed index, as written by the generator
+ * @param {String} dir The directory holding the files of the packages
+ * @constructor
+ */
+function ShardedMetabase(index, dir) {
+	if (!index || !index.packages) {
+		throw new Error('Not a sharded metabase index');
+	}
+	if (index.version !== VERSION) {
+		throw new Error('Unsupported sharded metabase version');
+	}
+	this.dir = dir;
+	this.packages = index.packages;
+	this.classNames = [];
+	this.packageOf = {};
+	for (var packageName in this.packages) {
+		var classes = this.packages[packageName].classes;
+		for (var i = 0; i < classes.length; i++) {
+			this.classNames.push(classes[i]);
+			this.packageOf[classes[i]] = packageName;
+		}
+	}
+	this.loaded = {};
+	this.resolved = {};
+}
+
+/**
+ * Read the files of a package.
+ *
+ * @param {String} packageName Name of the package
+ * @return {Object} The classes of the package by name, as they appear in the JSON metabase
+ */
+ShardedMetabase.prototype.loadPackage = function (packageName) {
+	var classes = this.loaded[packageName];
+	if (!classes) {
+		classes = {};
+		var files = this.packages[packageName].files;
+		for (var i = 0; i < files.length; i++) {
+			var part = JSON.parse(String(zlib.gunzipSync(fs.readFileSync(path.join(this.dir, files[i]))))).classes;
+			for (var name in part) {
+				classes[name] = part[name];
+			}
+		}
+		this.loaded[packageName] = classes;
+	}
+	return classes;
+};
+
+/**
+ * @param {String} className Fully qualified name of the class
+ * @return {Object} The class, as it would appear in the JSON metabase. undefined if it's not in the metabase
+ */
+ShardedMetabase.prototype.getClass = function (className) {
+	if (!this.hasClass(className)) {
+		return undefined;
+	}
+	var result = this.loadPackage(this.packageOf[className])[className];
+	if (!this.resolved[className]) {
+		this.resolved[className] = true;
+		inherited.resolve(result, this.getClass.bind(this));
+	}
+	return result;
+};
+
+ShardedMetabase.prototype.hasClass = function (className) {
+	return Object.prototype.hasOwnProperty.call(this.packageOf, className);
+};
+
+/**
+ * @return {Object} An object shaped like the JSON metabase, whose packages get read as their classes are looked up.
+ */
+ShardedMetabase.prototype.toMetabase = function () {
+	return { classes: lazyClasses(this) };
+};
+
+/**
+ * Read a sharded metabase.
+ *
+ * @param {Object} index The parsed index, as written by the generator
+ * @param {String} dir The directory holding the files of the packages
+ * @return {Object} An object shaped like the JSON metabase, whose packages get read as their classes are looked up.
+ */
+function readMetabase(index, dir) {
+	return new ShardedMetabase(index, dir).toMetabase();
+}
+
+exports.ShardedMetabase = ShardedMetabase;
+exports.readMetabase = readMetabase;
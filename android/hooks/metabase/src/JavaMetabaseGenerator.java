@@ -1,28 +1,77 @@
 /**
  * Java Metabase Generator
  */
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.ref.SoftReference;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
-import java.util.jar.JarFile;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.List;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
+import org.apache.bcel.Const;
 import org.apache.bcel.classfile.AccessFlags;
+import org.apache.bcel.classfile.Attribute;
+import org.apache.bcel.classfile.ClassFormatException;
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.ConstantUtf8;
+import org.apache.bcel.classfile.ConstantValue;
 import org.apache.bcel.classfile.ExceptionTable;
 import org.apache.bcel.classfile.Field;
 import org.apache.bcel.classfile.JavaClass;
 import org.apache.bcel.classfile.Method;
 import org.apache.bcel.generic.Type;
 import org.apache.bcel.util.ClassPath;
-import org.apache.bcel.util.SyntheticRepository;
+import org.apache.bcel.util.MemorySensitiveClassPathRepository;
+import org.apache.bcel.util.Repository;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.json.JSONWriter;
 
 /**
@@ -30,7 +79,10 @@ import org.json.JSONWriter;
  */
 public class JavaMetabaseGenerator
 {
-    private static final SyntheticRepository repo = SyntheticRepository.getInstance();
+    /**
+     * the classes of the classpath we're generating the metabase for. Replaced per request when running as a daemon
+     */
+    private static Repository repo = new ClassRepository(ClassPath.SYSTEM_CLASS_PATH);
     private static final Pattern isClass = Pattern.compile("\\.class$");
 
     /**
@@ -56,6 +108,520 @@ public class JavaMetabaseGenerator
 
     private static final Pattern anonymousClass = Pattern.compile(".+\\$\\d+$");
 
+    /**
+     * how many classes may be parsed ahead of the one being written, per thread
+     */
+    private static final int PARSE_AHEAD = 64;
+
+    /**
+     * bump whenever the format of the fragment files changes
+     */
+    private static final int FRAGMENT_VERSION = 1;
+
+    /**
+     * the jar whose fragment is being generated, null when generating the metabase in one go
+     */
+    private static Fragment fragment;
+
+    /**
+     * the position of every class in classpath order (among those we're generating), and that of
+     * the class being written. Lookups only find the classes before it (see findLoadedClass)
+     */
+    private static Map<String, Integer> positions;
+    private static int position;
+
+    /**
+     * whether an interface lists the interfaces it inherits methods from instead of repeating their methods
+     */
+    private static boolean dedupeInherited;
+
+    /**
+     * whether to parse whole class files with BCEL, rather than only the parts we need (see HeaderParser)
+     */
+    private static boolean fullParse;
+
+    /**
+     * whether to let go of classes once they're written, keeping only up to BOUNDED_CACHE_SIZE
+     * interfaces (and their inherited methods) for the classes implementing them (see ClassRepository)
+     */
+    private static boolean boundedMemory;
+    private static final int BOUNDED_CACHE_SIZE = 2048;
+
+    /**
+     * whether to log the classes that can't be written (they're left out of the metabase either way)
+     */
+    private static boolean verbose;
+
+    /**
+     * the jar entry each class we're generating the metabase for is read from: that of the first jar
+     * that has it, which is where we enumerated it from (see enumerate)
+     */
+    private static Map<String, ClassEntry> classEntries;
+
+    private static class ClassEntry
+    {
+        final ZipFile zipFile;
+        final ZipEntry entry;
+        /**
+         * or the jar inside an archive it's in (see NestedJar), and its entry in that
+         */
+        final NestedJar nestedJar;
+        final NestedJar.Entry nestedEntry;
+
+        ClassEntry(ZipFile zipFile, ZipEntry entry)
+        {
+            this.zipFile = zipFile;
+            this.entry = entry;
+            this.nestedJar = null;
+            this.nestedEntry = null;
+        }
+
+        ClassEntry(NestedJar nestedJar, NestedJar.Entry nestedEntry)
+        {
+            this.zipFile = null;
+            this.entry = null;
+            this.nestedJar = nestedJar;
+            this.nestedEntry = nestedEntry;
+        }
+
+        InputStream getInputStream() throws IOException
+        {
+            return (nestedJar != null) ? nestedJar.getInputStream(nestedEntry) : zipFile.getInputStream(entry);
+        }
+    }
+
+    /**
+     * A jar inside another archive, like the classes.jar and libs/*.jar of an AAR, which we read
+     * in place rather than extracting it to disk first.
+     *
+     * ZipFile only opens files, and ZipInputStream only reads an archive from start to end, while
+     * we read classes in any order (and from several threads). So we hold on to the jar's bytes
+     * (compressed, as they are in the jar) and read its central directory for where each entry is,
+     * then inflate an entry when it's read.
+     */
+    private static class NestedJar
+    {
+        static class Entry
+        {
+            final String name;
+            final int method;
+            final int offset;
+            final int compressedSize;
+
+            Entry(String name, int method, int offset, int compressedSize)
+            {
+                this.name = name;
+                this.method = method;
+                this.offset = offset;
+                this.compressedSize = compressedSize;
+            }
+        }
+
+        final String name;
+        final byte[] data;
+        /**
+         * in the order of the central directory, like ZipFile.entries()
+         */
+        final List<Entry> entries = new ArrayList<Entry>();
+
+        NestedJar(String name, byte[] data) throws IOException
+        {
+            this.name = name;
+            this.data = data;
+
+            // the end of central directory record, followed by a comment of up to 64K
+            int end = data.length - 22;
+            while (end >= 0 && (int) readInt(end) != 0x06054b50)
+            {
+                if (data.length - end > 22 + 0xFFFF)
+                {
+                    throw new IOException("Not a jar: " + name);
+                }
+                end--;
+            }
+            if (end < 0)
+            {
+                throw new IOException("Not a jar: " + name);
+            }
+            int count = readShort(end + 10);
+            long offset = readInt(end + 16);
+            if (count == 0xFFFF || offset == 0xFFFFFFFFL)
+            {
+                throw new IOException("Zip64 isn't supported: " + name);
+            }
+            int pos = (int) offset;
+            for (int i = 0; i < count; i++)
+            {
+                if ((int) readInt(pos) != 0x02014b50)
+                {
+                    throw new IOException("Corrupt central directory in " + name);
+                }
+                int nameLength = readShort(pos + 28);
+                long compressedSize = readInt(pos + 20);
+                long localHeader = readInt(pos + 42);
+                if (compressedSize == 0xFFFFFFFFL || localHeader == 0xFFFFFFFFL)
+                {
+                    throw new IOException("Zip64 isn't supported: " + name);
+                }
+                entries.add(new Entry(new String(data, pos + 46, nameLength, "UTF-8"), readShort(pos + 10),
+                        (int) localHeader, (int) compressedSize));
+                pos += 46 + nameLength + readShort(pos + 30) + readShort(pos + 32);
+            }
+        }
+
+        InputStream getInputStream(Entry entry) throws IOException
+        {
+            // the local header's name and extra field may differ in length from the central directory's
+            if ((int) readInt(entry.offset) != 0x04034b50)
+            {
+                throw new IOException("Corrupt entry " + entry.name + " in " + name);
+            }
+            int start = entry.offset + 30 + readShort(entry.offset + 26) + readShort(entry.offset + 28);
+            switch (entry.method)
+            {
+                case ZipEntry.STORED:
+                    return new ByteArrayInputStream(data, start, entry.compressedSize);
+                case ZipEntry.DEFLATED:
+                    // with an extra byte if there is one, as the Inflater may want it without header
+                    // and trailer (ZipFile does the same)
+                    InputStream in = new ByteArrayInputStream(data, start, Math.min(entry.compressedSize + 1, data.length - start));
+                    final Inflater inflater = new Inflater(true);
+                    return new InflaterInputStream(in, inflater) {
+                        public void close() throws IOException
+                        {
+                            super.close();
+                            inflater.end();
+                        }
+                    };
+                default:
+                    throw new IOException("Unsupported compression method " + entry.method + " of " + entry.name + " in " + name);
+            }
+        }
+
+        private int readShort(int pos)
+        {
+            return (data[pos] & 0xFF) | (data[pos + 1] & 0xFF) << 8;
+        }
+
+        private long readInt(int pos)
+        {
+            return (readShort(pos) | (long) readShort(pos + 2) << 16);
+        }
+    }
+
+    /**
+     * where to report what we did, a buffer sent back with the response when running as a daemon
+     */
+    private static PrintStream log = System.err;
+
+    /**
+     * how long the daemon waits for a request before exiting, and for a client to send its request
+     */
+    private static final int DAEMON_IDLE_TIMEOUT = 30 * 60 * 1000;
+    private static final int DAEMON_READ_TIMEOUT = 10 * 1000;
+
+    /**
+     * the classpath (and the size and modification time of its entries) the daemon's repo holds the classes of
+     */
+    private static String repoKey;
+
+    /**
+     * The part of the metabase generated from a single jar, so it can be cached
+     * and reused as long as the jar doesn't change.
+     *
+     * A class is written exactly as it would be in one go over the whole classpath,
+     * which depends on the jars before this one in two ways: classes they already
+     * contain are skipped (first wins), and an interface's inherited methods include
+     * those of super-interfaces they contain. So besides the output, a fragment
+     * records which jar (by content hash) provided each of those names, or that none
+     * did, and is only reused while that still holds.
+     */
+    private static class Fragment
+    {
+        final int index;
+        final String[] hashes;
+        final Map<String, Integer> firstJar;
+
+        /**
+         * our classes that an earlier jar provides, and the hash of that jar
+         */
+        final JSONObject shadowed = new JSONObject();
+
+        /**
+         * interfaces looked up in earlier jars, and the hash of the jar that provided it ("" for none)
+         */
+        final JSONObject external = new JSONObject();
+
+        Fragment(int index, String[] hashes, Map<String, Integer> firstJar)
+        {
+            this.index = index;
+            this.hashes = hashes;
+            this.firstJar = firstJar;
+        }
+
+        /**
+         * @return the hash of the earliest jar before ours that contains the class, "" if none does
+         */
+        String provider(String classname)
+        {
+            Integer first = firstJar.get(classname);
+            return (first != null && first < index) ? hashes[first] : "";
+        }
+
+        /**
+         * record which jar provides a class we look up: an earlier one, whose classes
+         * would all have been loaded by now, or none (so it's one of ours, or missing)
+         *
+         * @return whether an earlier jar provides it
+         */
+        boolean isProvided(String classname)
+        {
+            String provider = provider(classname);
+            external.put(classname, provider);
+            return !provider.isEmpty();
+        }
+
+        /**
+         * whether a fragment generated with the given dependencies applies to the current classpath
+         */
+        boolean isValid(List<String> classnames, JSONObject meta)
+        {
+            if (meta == null || meta.optInt("version") != FRAGMENT_VERSION
+                    || meta.optBoolean("dedupeInherited") != dedupeInherited)
+            {
+                return false;
+            }
+            JSONObject wasShadowed = meta.getJSONObject("shadowed");
+            for (String classname : classnames)
+            {
+                if (!provider(classname).equals(wasShadowed.optString(classname, "")))
+                {
+                    return false;
+                }
+            }
+            JSONObject wasExternal = meta.getJSONObject("external");
+            for (Object classname : wasExternal.keySet())
+            {
+                if (!provider((String) classname).equals(wasExternal.getString((String) classname)))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        JSONObject meta()
+        {
+            JSONObject meta = new JSONObject();
+            meta.put("version", FRAGMENT_VERSION);
+            meta.put("dedupeInherited", dedupeInherited);
+            meta.put("shadowed", shadowed);
+            meta.put("external", external);
+            return meta;
+        }
+    }
+
+    /**
+     * Reads no more of a class file than the metabase needs: the constant pool, the class's
+     * access flags, name, superclass and interfaces, and its fields and methods with just their
+     * ConstantValue and Exceptions attributes. Everything else, the methods' Code (with its line
+     * number, local variable and stack map tables) in particular, is skipped over rather than
+     * parsed, and that's where most of BCEL's parsing time goes.
+     *
+     * The result is the JavaClass BCEL's ClassParser would have made of the file, minus the
+     * attributes we skip, so the class gets written exactly the same.
+     */
+    static class HeaderParser
+    {
+        static JavaClass parse(byte[] bytes, String classname) throws IOException
+        {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != Const.JVM_CLASSFILE_MAGIC)
+            {
+                throw new ClassFormatException(classname + " is not a Java .class file");
+            }
+            int minor = in.readUnsignedShort();
+            int major = in.readUnsignedShort();
+            ConstantPool constantPool = new ConstantPool(in);
+
+            // adjusted and checked like ClassParser does
+            int accessFlags = in.readUnsignedShort();
+            if ((accessFlags & Const.ACC_INTERFACE) != 0)
+            {
+                accessFlags |= Const.ACC_ABSTRACT;
+            }
+            if ((accessFlags & Const.ACC_ABSTRACT) != 0 && (accessFlags & Const.ACC_FINAL) != 0)
+            {
+                throw new ClassFormatException("Class " + classname + " can't be both final and abstract");
+            }
+            int classNameIndex = in.readUnsignedShort();
+            int superclassNameIndex = in.readUnsignedShort();
+
+            int[] interfaces = new int[in.readUnsignedShort()];
+            for (int i = 0; i < interfaces.length; i++)
+            {
+                interfaces[i] = in.readUnsignedShort();
+            }
+            Field[] fields = new Field[in.readUnsignedShort()];
+            for (int i = 0; i < fields.length; i++)
+            {
+                int access = in.readUnsignedShort();
+                int name = in.readUnsignedShort();
+                int signature = in.readUnsignedShort();
+                fields[i] = new Field(access, name, signature, readAttributes(in, constantPool), constantPool);
+            }
+            Method[] methods = new Method[in.readUnsignedShort()];
+            for (int i = 0; i < methods.length; i++)
+            {
+                int access = in.readUnsignedShort();
+                int name = in.readUnsignedShort();
+                int signature = in.readUnsignedShort();
+                methods[i] = new Method(access, name, signature, readAttributes(in, constantPool), constantPool);
+            }
+            // we don't need any of the class's own attributes
+            return new JavaClass(classNameIndex, superclassNameIndex, classname, major, minor, accessFlags,
+                    constantPool, interfaces, fields, methods, new Attribute[0]);
+        }
+
+        /**
+         * read the ConstantValue and Exceptions attributes (read like Attribute.readAttribute does), skip the rest
+         */
+        private static Attribute[] readAttributes(DataInputStream in, ConstantPool constantPool) throws IOException
+        {
+            int count = in.readUnsignedShort();
+            List<Attribute> attributes = new ArrayList<Attribute>(1);
+            for (int i = 0; i < count; i++)
+            {
+                int nameIndex = in.readUnsignedShort();
+                int length = in.readInt();
+                String name = ((ConstantUtf8) constantPool.getConstant(nameIndex, Const.CONSTANT_Utf8)).getBytes();
+                if (name.equals("ConstantValue"))
+                {
+                    attributes.add(new ConstantValue(nameIndex, length, in.readUnsignedShort(), constantPool));
+                }
+                else if (name.equals("Exceptions"))
+                {
+                    int[] exceptions = new int[in.readUnsignedShort()];
+                    for (int j = 0; j < exceptions.length; j++)
+                    {
+                        exceptions[j] = in.readUnsignedShort();
+                    }
+                    attributes.add(new ExceptionTable(nameIndex, length, exceptions, constantPool));
+                }
+                else if (length < 0 || in.skipBytes(length) != length)
+                {
+                    throw new ClassFormatException("Truncated attribute " + name);
+                }
+            }
+            return attributes.toArray(new Attribute[attributes.size()]);
+        }
+    }
+
+    /**
+     * A repository that loads classes with parse(): from the jar entry we enumerated them from,
+     * rather than whatever the classpath finds first (which starts with the classes of the JVM
+     * we run on, i.e. its java.* classes instead of those of android.jar), and without parsing
+     * more than we need.
+     *
+     * It only keeps the classes loaded from the class file for their name, so what a lookup finds
+     * doesn't depend on the class files loaded before: one whose name doesn't match its location
+     * (say, in META-INF/versions of a multi-release jar) would replace the class loaded under its
+     * name. That matters all the more for the daemon, whose repository outlives a request.
+     *
+     * Given a capacity, it only keeps that many interfaces (the only classes we look up once
+     * they're written, for their methods), least recently used first out, and only as long as
+     * there's memory to spare. Everything else is left for the garbage collector once it's written.
+     */
+    private static class ClassRepository extends MemorySensitiveClassPathRepository
+    {
+        private final Map<String, SoftReference<JavaClass>> interfaces;
+
+        ClassRepository(ClassPath classPath)
+        {
+            this(classPath, 0);
+        }
+
+        ClassRepository(ClassPath classPath, final int capacity)
+        {
+            super(classPath);
+            interfaces = (capacity <= 0) ? null : new LinkedHashMap<String, SoftReference<JavaClass>>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<String, SoftReference<JavaClass>> eldest)
+                {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        public void storeClass(JavaClass clazz)
+        {
+            // the file name is the name it was loaded by (see ClassParser)
+            if (!clazz.getClassName().equals(clazz.getFileName()))
+            {
+                return;
+            }
+            if (interfaces == null)
+            {
+                super.storeClass(clazz);
+            }
+            else if (clazz.isInterface())
+            {
+                interfaces.put(clazz.getClassName(), new SoftReference<JavaClass>(clazz));
+            }
+        }
+
+        public JavaClass findClass(String className)
+        {
+            if (interfaces == null)
+            {
+                return super.findClass(className);
+            }
+            SoftReference<JavaClass> ref = interfaces.get(className);
+            return (ref != null) ? ref.get() : null;
+        }
+
+        public void removeClass(JavaClass clazz)
+        {
+            if (interfaces == null)
+            {
+                super.removeClass(clazz);
+            }
+            else
+            {
+                interfaces.remove(clazz.getClassName());
+            }
+        }
+
+        public void clear()
+        {
+            super.clear();
+            if (interfaces != null)
+            {
+                interfaces.clear();
+            }
+        }
+
+        public JavaClass loadClass(String className) throws ClassNotFoundException
+        {
+            if (className == null || className.isEmpty())
+            {
+                return super.loadClass(className);
+            }
+            className = className.replace('/', '.');
+            JavaClass clazz = findClass(className);
+            if (clazz != null)
+            {
+                return clazz;
+            }
+            try {
+                clazz = parse(getClassPath(), className);
+            } catch (Exception e) {
+                throw new ClassNotFoundException("Exception while looking for class " + className + ": " + e, e);
+            }
+            storeClass(clazz);
+            return clazz;
+        }
+    }
+
     /**
      * determine if the class is a package-private class (with no access attributes)
      * that can only be accessed by classes within the same package
@@ -66,116 +632,1412 @@ public class JavaMetabaseGenerator
     }
 
     /**
-     * enumerate over a zip/jar and load up it's classes
+     * Writes the metabase in a compact binary format instead of JSON, taking the same calls
+     * as the JSONWriter we normally write it with (so it describes the very same values).
+     *
+     * Every string is stored once, in a table, and referred to by its index. The classes are
+     * indexed by name, so a reader can decode any one of them without looking at the rest.
+     * All numbers are unsigned LEB128 varints, and the layout is:
+     *
+     *   "HLMB" version
+     *   class records, each a single value (see below)
+     *   string table: count, then for each string its UTF-8 length and bytes
+     *   class index: count, then for each class its name's string index and the offset of its
+     *                record, relative to the previous one (the first relative to the start)
+     *   trailer: the offsets of the string table and of the class index, as 4-byte little
+     *            endian integers, followed by "HLMB"
+     *
+     * A value is a tag byte: NULL, FALSE or TRUE; STRING or NUMBER followed by the index of the
+     * string (the JSON text, for a number); ARRAY followed by its values and an END tag; or
+     * OBJECT followed by its entries and a 0. An entry is the index of its key plus 1, then the value.
+     */
+    static class BinaryWriter extends JSONWriter
+    {
+        static final int VERSION = 1;
+
+        static final int NULL = 0;
+        static final int FALSE = 1;
+        static final int TRUE = 2;
+        static final int STRING = 3;
+        static final int NUMBER = 4;
+        static final int ARRAY = 5;
+        static final int OBJECT = 6;
+        static final int END = 7;
+
+        private final OutputStream out;
+        private long position;
+        private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+        private final List<String> strings = new ArrayList<String>();
+        private final List<Integer> classNames = new ArrayList<Integer>();
+        private final List<Long> classOffsets = new ArrayList<Long>();
+
+        /**
+         * how deep we are in objects/arrays; at 0, keys are class names
+         */
+        private int depth;
+
+        BinaryWriter(OutputStream out) throws IOException
+        {
+            super(null);
+            this.out = out;
+            writeBytes("HLMB".getBytes("UTF-8"));
+            writeVarint(VERSION);
+        }
+
+        private void writeByte(int b)
+        {
+            try {
+                out.write(b);
+            } catch (IOException e) {
+                throw new JSONException(e);
+            }
+            position++;
+        }
+
+        private void writeBytes(byte[] bytes)
+        {
+            try {
+                out.write(bytes);
+            } catch (IOException e) {
+                throw new JSONException(e);
+            }
+            position += bytes.length;
+        }
+
+        private void writeVarint(long value)
+        {
+            while ((value & ~0x7FL) != 0)
+            {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        private int indexOf(String string)
+        {
+            Integer index = stringIndexes.get(string);
+            if (index == null)
+            {
+                index = strings.size();
+                strings.add(string);
+                stringIndexes.put(string, index);
+            }
+            return index;
+        }
+
+        public JSONWriter key(String key)
+        {
+            if (depth == 0)
+            {
+                classNames.add(indexOf(key));
+                classOffsets.add(position);
+            }
+            else
+            {
+                writeVarint(indexOf(key) + 1);
+            }
+            return this;
+        }
+
+        public JSONWriter object()
+        {
+            writeByte(OBJECT);
+            depth++;
+            return this;
+        }
+
+        public JSONWriter endObject()
+        {
+            writeVarint(0);
+            depth--;
+            return this;
+        }
+
+        public JSONWriter array()
+        {
+            writeByte(ARRAY);
+            depth++;
+            return this;
+        }
+
+        public JSONWriter endArray()
+        {
+            writeByte(END);
+            depth--;
+            return this;
+        }
+
+        public JSONWriter value(boolean b)
+        {
+            writeByte(b ? TRUE : FALSE);
+            return this;
+        }
+
+        public JSONWriter value(long l)
+        {
+            return value(Long.valueOf(l));
+        }
+
+        public JSONWriter value(double d)
+        {
+            return value(Double.valueOf(d));
+        }
+
+        public JSONWriter value(Object object)
+        {
+            if (object == null || object.equals(null))
+            {
+                writeByte(NULL);
+            }
+            else if (object instanceof Boolean)
+            {
+                value(((Boolean) object).booleanValue());
+            }
+            else if (object instanceof Number)
+            {
+                writeByte(NUMBER);
+                writeVarint(indexOf(JSONObject.numberToString((Number) object)));
+            }
+            else
+            {
+                // anything else gets written as its string by the JSONWriter
+                writeByte(STRING);
+                writeVarint(indexOf(object.toString()));
+            }
+            return this;
+        }
+
+        /**
+         * write the string table, class index and trailer
+         */
+        void finish() throws IOException
+        {
+            long stringsOffset = position;
+            writeVarint(strings.size());
+            for (String string : strings)
+            {
+                byte[] bytes = string.getBytes("UTF-8");
+                writeVarint(bytes.length);
+                writeBytes(bytes);
+            }
+            long indexOffset = position;
+            writeVarint(classNames.size());
+            long previous = 0;
+            for (int i = 0; i < classNames.size(); i++)
+            {
+                writeVarint(classNames.get(i));
+                writeVarint(classOffsets.get(i) - previous);
+                previous = classOffsets.get(i);
+            }
+            writeInt((int) stringsOffset);
+            writeInt((int) indexOffset);
+            writeBytes("HLMB".getBytes("UTF-8"));
+            out.flush();
+        }
+
+        private void writeInt(int value)
+        {
+            for (int i = 0; i < 4; i++)
+            {
+                writeByte((value >>> (8 * i)) & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Writes the metabase split up by package, into gzipped JSON files in a directory, taking the
+     * same calls as the JSONWriter we normally write it with. Then the index of those goes to the
+     * output, so a reader only has to read the files of the packages it looks classes up in.
+     *
+     * The classes are written in the same order as always, which is the order of the classpath,
+     * so the classes of a package needn't all come one after another. Each run of classes of the
+     * same package goes to a file of its own ("N.json.gz", numbered in order), shaped like the
+     * metabase: {"classes": {...}}. The index lists the files of each package, and its classes:
+     *
+     *   {"version": 1, "packages": {"android.view": {"files": ["0.json.gz", ...], "classes": ["android.view.View", ...]}, ...}}
+     */
+    static class ShardWriter extends JSONWriter
+    {
+        static final int VERSION = 1;
+
+        private static class Shard
+        {
+            final List<String> files = new ArrayList<String>();
+            final List<String> classes = new ArrayList<String>();
+        }
+
+        private final File dir;
+        private final Map<String, Shard> shards = new LinkedHashMap<String, Shard>();
+        private int files;
+
+        /**
+         * the file being written, and the package it's for
+         */
+        private Writer out;
+        private JSONWriter part;
+        private String partPackage;
+
+        /**
+         * how deep we are in objects/arrays; at 0, keys are class names
+         */
+        private int depth;
+
+        ShardWriter(File dir) throws IOException
+        {
+            super(null);
+            this.dir = dir;
+            dir.mkdirs();
+            // don't leave those of an earlier run around
+            File[] previous = dir.listFiles();
+            for (int i = 0; previous != null && i < previous.length; i++)
+            {
+                if (previous[i].getName().endsWith(".json.gz"))
+                {
+                    previous[i].delete();
+                }
+            }
+        }
+
+        public JSONWriter key(String key)
+        {
+            if (depth == 0)
+            {
+                int dot = key.lastIndexOf('.');
+                String packageName = (dot == -1) ? "" : key.substring(0, dot);
+                if (!packageName.equals(partPackage))
+                {
+                    startPart(packageName);
+                }
+                shards.get(packageName).classes.add(key);
+            }
+            part.key(key);
+            return this;
+        }
+
+        private void startPart(String packageName)
+        {
+            try {
+                endPart();
+                String name = (files++) + ".json.gz";
+                out = new BufferedWriter(new OutputStreamWriter(
+                        new GZIPOutputStream(new FileOutputStream(new File(dir, name)), 65536), "UTF-8"), 65536);
+                part = new JSONWriter(out);
+                part.object();
+                part.key("classes");
+                part.object();
+                partPackage = packageName;
+                Shard shard = shards.get(packageName);
+                if (shard == null)
+                {
+                    shard = new Shard();
+                    shards.put(packageName, shard);
+                }
+                shard.files.add(name);
+            } catch (IOException e) {
+                throw new JSONException(e);
+            }
+        }
+
+        private void endPart() throws IOException
+        {
+            if (part != null)
+            {
+                part.endObject();
+                part.endObject();
+                out.close();
+                part = null;
+                partPackage = null;
+            }
+        }
+
+        public JSONWriter object()
+        {
+            part.object();
+            depth++;
+            return this;
+        }
+
+        public JSONWriter endObject()
+        {
+            part.endObject();
+            depth--;
+            return this;
+        }
+
+        public JSONWriter array()
+        {
+            part.array();
+            depth++;
+            return this;
+        }
+
+        public JSONWriter endArray()
+        {
+            part.endArray();
+            depth--;
+            return this;
+        }
+
+        public JSONWriter value(boolean b)
+        {
+            part.value(b);
+            return this;
+        }
+
+        public JSONWriter value(long l)
+        {
+            part.value(l);
+            return this;
+        }
+
+        public JSONWriter value(double d)
+        {
+            part.value(d);
+            return this;
+        }
+
+        public JSONWriter value(Object object)
+        {
+            part.value(object);
+            return this;
+        }
+
+        /**
+         * finish the last file, and write the index
+         */
+        void finish(Writer index) throws IOException
+        {
+            endPart();
+            JSONWriter writer = new JSONWriter(index);
+            writer.object();
+            writer.key("version").value(VERSION);
+            writer.key("packages");
+            writer.object();
+            for (Map.Entry<String, Shard> entry : shards.entrySet())
+            {
+                writer.key(entry.getKey());
+                writer.object();
+                writer.key("files");
+                writer.array();
+                for (String file : entry.getValue().files)
+                {
+                    writer.value(file);
+                }
+                writer.endArray();
+                writer.key("classes");
+                writer.array();
+                for (String classname : entry.getValue().classes)
+                {
+                    writer.value(classname);
+                }
+                writer.endArray();
+                writer.endObject();
+            }
+            writer.endObject();
+            writer.endObject();
+        }
+    }
+
+    /**
+     * enumerate over a zip/jar and collect the names of it's classes we haven't seen in an earlier one.
+     * For an AAR, those of its classes.jar and then libs/*.jar, which we read in place (see NestedJar)
+     */
+    private static void enumerate(ZipFile zipFile, List<String> classnames, Set<String> uniques) throws IOException
+    {
+        String filename = zipFile.getName();
+        List<ZipEntry> nested = new ArrayList<ZipEntry>();
+        Enumeration<? extends ZipEntry> e = zipFile.entries();
+        while (e.hasMoreElements())
+        {
+            ZipEntry zipEntry = e.nextElement();
+            String entry = zipEntry.toString();
+            if (filename.endsWith(".aar"))
+            {
+                if (entry.equals("classes.jar"))
+                {
+                    nested.add(0, zipEntry);
+                }
+                else if (entry.startsWith("libs/") && entry.endsWith(".jar") && entry.indexOf('/', "libs/".length()) == -1)
+                {
+                    nested.add(zipEntry);
+                }
+            }
+            else if (isEnumerated(filename, entry))
+            {
+                add(entry, new ClassEntry(zipFile, zipEntry), classnames, uniques);
+            }
+        }
+        for (ZipEntry zipEntry : nested)
+        {
+            NestedJar jar;
+            InputStream is = zipFile.getInputStream(zipEntry);
+            try {
+                jar = new NestedJar(filename + "!/" + zipEntry.getName(), readAll(is));
+            } catch (IOException ex) {
+                log.println("Skipping " + filename + "!/" + zipEntry.getName() + ": " + ex.getMessage());
+                continue;
+            } finally {
+                is.close();
+            }
+            for (NestedJar.Entry entry : jar.entries)
+            {
+                if (isEnumerated(jar.name, entry.name))
+                {
+                    add(entry.name, new ClassEntry(jar, entry), classnames, uniques);
+                }
+            }
+        }
+    }
+
+    private static boolean isEnumerated(String filename, String entry)
+    {
+        return ((filename.endsWith("android.jar") && whitelist.matcher(entry).find()) || true) && !blacklist.matcher(entry).find() && isClass.matcher(entry).find();
+    }
+
+    private static void add(String entry, ClassEntry classEntry, List<String> classnames, Set<String> uniques)
+    {
+        // only the extension, not a package like ...classgen
+        String classname = entry.substring(0, entry.length() - ".class".length()).replace('/', '.');
+        // A class that fails to load would fail the same way again (it's always
+        // loaded from the first jar that has it), so first wins either way
+        if (uniques.add(classname))
+        {
+            classnames.add(classname);
+        }
+        if (!classEntries.containsKey(classname))
+        {
+            classEntries.put(classname, classEntry);
+        }
+    }
+
+    /**
+     * load up the classes one after another and write them out
+     */
+    private static void generate(List<String> classnames, JSONWriter writer)
+    {
+        for (int i = 0; i < classnames.size(); i++)
+        {
+            String classname = classnames.get(i);
+            position = i;
+            try {
+                writeClass(classname, repo.loadClass(classname), writer);
+            } catch (Throwable t) {
+                skipped(classname, t);
+            }
+        }
+    }
+
+    /**
+     * a class that failed to load or write, which gets left out of the metabase
+     */
+    private static void skipped(String classname, Throwable t)
+    {
+        if (t instanceof ExecutionException && t.getCause() != null)
+        {
+            t = t.getCause();
+        }
+        if (verbose)
+        {
+            log.println("Skipping " + classname + ": " + t);
+        }
+    }
+
+    /**
+     * parse the classes on a pool of threads, while writing them out in order on this one.
+     *
+     * Only parsing happens in parallel: each class is added to the repository and written
+     * at the same point as in a sequential run, so any lookups of other classes while
+     * writing it (see generateMethodsFromImplementedInterfaces) see exactly the same
+     * classes, and the output is identical.
+     */
+    private static void generate(List<String> classnames, JSONWriter writer, int threads) throws InterruptedException
+    {
+        final ClassPath classPath = repo.getClassPath();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Deque<Future<JavaClass>> parsing = new ArrayDeque<Future<JavaClass>>();
+            int next = 0;
+            for (int i = 0; i < classnames.size(); i++)
+            {
+                String classname = classnames.get(i);
+                position = i;
+                while (next < classnames.size() && parsing.size() < threads * PARSE_AHEAD)
+                {
+                    final String name = classnames.get(next++);
+                    parsing.add(pool.submit(new Callable<JavaClass>() {
+                        public JavaClass call() throws Exception
+                        {
+                            return parse(classPath, name);
+                        }
+                    }));
+                }
+                try {
+                    JavaClass cls = parsing.remove().get();
+                    // the class may have been stored already, in an earlier run of the daemon;
+                    // loadClass would return that
+                    JavaClass stored = repo.findClass(classname);
+                    if (stored != null) {
+                        cls = stored;
+                    } else {
+                        repo.storeClass(cls);
+                    }
+                    writeClass(classname, cls, writer);
+                } catch (Throwable t) {
+                    skipped(classname, t);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * parse a class like repo.loadClass does, but without storing it in the repository: from the jar
+     * entry we enumerated it from, or if we didn't, from wherever the classpath has it
+     */
+    private static JavaClass parse(ClassPath classPath, String classname) throws Exception
+    {
+        ClassEntry classEntry = (classEntries != null) ? classEntries.get(classname) : null;
+        InputStream is = (classEntry != null) ? classEntry.getInputStream() : classPath.getInputStream(classname);
+        byte[] bytes;
+        try {
+            bytes = readAll(is);
+        } finally {
+            is.close();
+        }
+        if (!fullParse)
+        {
+            try {
+                return HeaderParser.parse(bytes, classname);
+            } catch (Exception e) {
+                // leave it to BCEL, which reports what's wrong with it (or copes with it)
+            }
+        }
+        return new ClassParser(new ByteArrayInputStream(bytes), classname).parse();
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = is.read(buf)) != -1)
+        {
+            bytes.write(buf, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeClass(String classname, JavaClass cls, JSONWriter writer)
+    {
+        if (isWritten(classname, cls)) {
+            writer.key(classname);
+            writer.object();
+            asJSON(cls, writer);
+            writer.endObject();
+        }
+    }
+
+    private static void generateAll(List<String> classnames, JSONWriter writer, int threads) throws InterruptedException
+    {
+        positions = new HashMap<String, Integer>();
+        for (int i = 0; i < classnames.size(); i++)
+        {
+            positions.put(classnames.get(i), i);
+        }
+        try {
+            if (threads > 1)
+            {
+                generate(classnames, writer, threads);
+            }
+            else
+            {
+                generate(classnames, writer);
+            }
+        } finally {
+            positions = null;
+        }
+    }
+
+    /**
+     * whether a class gets written to the metabase
+     */
+    private static boolean isWritten(String classname, JavaClass cls)
+    {
+        // skip private/anonymous classes but keep abstract and package-level classes
+        // because there may be other public classes extending them
+        return (cls.isPublic() || cls.isProtected() || cls.isAbstract() || isPackagePrivate(cls))
+                && !anonymousClass.matcher(classname).matches();
+    }
+
+    /**
+     * write only the classes reachable from the given roots: their superclasses and interfaces,
+     * the types of their methods' arguments and return values and of their fields, their
+     * enclosing classes and the classes nested directly inside them (what generate.js'
+     * expandDependencies() follows, plus interfaces). Each is written exactly as it would be
+     * when writing the whole classpath, in the same order.
+     */
+    private static void generateReachable(List<String> classnames, Set<String> roots, JSONWriter writer)
+    {
+        positions = new HashMap<String, Integer>();
+        Map<String, List<String>> nested = new HashMap<String, List<String>>();
+        for (int i = 0; i < classnames.size(); i++)
+        {
+            String classname = classnames.get(i);
+            positions.put(classname, i);
+            int dollar = classname.lastIndexOf('$');
+            if (dollar != -1)
+            {
+                String outer = classname.substring(0, dollar);
+                List<String> inner = nested.get(outer);
+                if (inner == null)
+                {
+                    inner = new ArrayList<String>();
+                    nested.put(outer, inner);
+                }
+                inner.add(classname);
+            }
+        }
+
+        Set<String> seen = new HashSet<String>();
+        Deque<String> queue = new ArrayDeque<String>();
+        for (String root : roots)
+        {
+            if (positions.containsKey(root) && seen.add(root))
+            {
+                queue.add(root);
+            }
+        }
+        Map<Integer, JavaClass> reachable = new HashMap<Integer, JavaClass>();
+        while (!queue.isEmpty())
+        {
+            String classname = queue.remove();
+            JavaClass cls;
+            try {
+                cls = repo.loadClass(classname);
+            } catch (Throwable t) {
+                continue;
+            }
+            if (!isWritten(classname, cls))
+            {
+                continue;
+            }
+            // loaded again when it's written
+            reachable.put(positions.get(classname), boundedMemory ? null : cls);
+
+            List<String> dependencies = new ArrayList<String>();
+            dependencies.add(cls.getSuperclassName());
+            dependencies.addAll(Arrays.asList(cls.getInterfaceNames()));
+            for (Method method : cls.getMethods())
+            {
+                if ((!method.isPublic() && !method.isProtected()) || method.getName().startsWith("access$")) {
+                    continue;
+                }
+                dependencies.add(method.getReturnType().toString());
+                for (Type type : method.getArgumentTypes())
+                {
+                    dependencies.add(type.toString());
+                }
+            }
+            for (Field field : cls.getFields())
+            {
+                if (field.isPublic() || field.isProtected()) {
+                    dependencies.add(field.getType().toString());
+                }
+            }
+            int dollar = classname.lastIndexOf('$');
+            if (dollar != -1)
+            {
+                dependencies.add(classname.substring(0, dollar));
+            }
+            if (nested.containsKey(classname))
+            {
+                dependencies.addAll(nested.get(classname));
+            }
+            for (String dependency : dependencies)
+            {
+                // element type of arrays
+                int bracket = dependency.indexOf('[');
+                if (bracket != -1)
+                {
+                    dependency = dependency.substring(0, bracket);
+                }
+                if (positions.containsKey(dependency) && seen.add(dependency))
+                {
+                    queue.add(dependency);
+                }
+            }
+        }
+
+        inheritedMethods.clear();
+        Integer[] order = reachable.keySet().toArray(new Integer[reachable.size()]);
+        Arrays.sort(order);
+        try {
+            for (Integer i : order)
+            {
+                position = i;
+                JavaClass cls = reachable.get(i);
+                try {
+                    writeClass(classnames.get(i), (cls != null) ? cls : repo.loadClass(classnames.get(i)), writer);
+                } catch (ClassNotFoundException e) {
+                    // it loaded when we followed the dependencies, so it will again
+                }
+            }
+        } finally {
+            positions = null;
+        }
+        log.println("Wrote " + order.length + " of " + classnames.size() + " classes, reachable from " + roots.size() + " roots");
+    }
+
+    /**
+     * the SHA-1 of a file's contents, as hex
+     */
+    private static String hash(String filename) throws Exception
+    {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        InputStream is = new FileInputStream(filename);
+        try {
+            byte[] buf = new byte[65536];
+            int read;
+            while ((read = is.read(buf)) != -1)
+            {
+                digest.update(buf, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+        return hex(digest.digest());
+    }
+
+    private static String hex(byte[] bytes)
+    {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes)
+        {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * write the metabase from per-jar fragments cached in the given directory,
+     * only introspecting the jars without a valid fragment (and caching theirs)
+     */
+    private static void generateFromFragments(List<ZipFile> jars, File dir, Writer out, int threads) throws Exception
+    {
+        dir.mkdirs();
+        int count = jars.size();
+        String[] hashes = new String[count];
+        List<List<String>> classnames = new ArrayList<List<String>>();
+        Map<String, Integer> firstJar = new HashMap<String, Integer>();
+        for (int i = 0; i < count; i++)
+        {
+            hashes[i] = hash(jars.get(i).getName());
+            List<String> names = new ArrayList<String>();
+            enumerate(jars.get(i), names, new HashSet<String>());
+            for (String name : names)
+            {
+                if (!firstJar.containsKey(name))
+                {
+                    firstJar.put(name, i);
+                }
+            }
+            classnames.add(names);
+        }
+
+        out.write("{\"classes\":{");
+        boolean first = true;
+        int reused = 0;
+        for (int i = 0; i < count; i++)
+        {
+            Fragment current = new Fragment(i, hashes, firstJar);
+            File file = new File(dir, hashes[i] + ".json");
+            File metaFile = new File(dir, hashes[i] + ".deps.json");
+            if (current.isValid(classnames.get(i), readMeta(metaFile)))
+            {
+                reused++;
+            }
+            else
+            {
+                List<String> names = new ArrayList<String>();
+                for (String name : classnames.get(i))
+                {
+                    String provider = current.provider(name);
+                    if (provider.isEmpty())
+                    {
+                        names.add(name);
+                    }
+                    else
+                    {
+                        current.shadowed.put(name, provider);
+                    }
+                }
+                File tmp = new File(file.getPath() + ".tmp");
+                Writer fragmentWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"), 65536);
+                try {
+                    JSONWriter writer = new JSONWriter(fragmentWriter);
+                    writer.object();
+                    fragment = current;
+                    // what a fragment's lookups find depends on the jars before it
+                    inheritedMethods.clear();
+                    try {
+                        generateAll(names, writer, threads);
+                    } finally {
+                        fragment = null;
+                    }
+                    writer.endObject();
+                } finally {
+                    fragmentWriter.close();
+                }
+                replace(tmp, file);
+                // written last, so the fragment only counts once it's complete
+                writeMeta(metaFile, current.meta());
+            }
+            if (appendFragment(file, out, first))
+            {
+                first = false;
+            }
+        }
+        out.write("}}");
+        log.println("Reused metabase fragments of " + reused + " of " + count + " jars");
+        removeStaleFragments(dir, hashes);
+    }
+
+    /**
+     * delete the fragments (and leftover temporary files) of jars that aren't on the classpath anymore,
+     * so every version of a jar doesn't leave its fragment behind
+     */
+    private static void removeStaleFragments(File dir, String[] hashes)
+    {
+        Set<String> current = new HashSet<String>(Arrays.asList(hashes));
+        File[] files = dir.listFiles();
+        if (files == null)
+        {
+            return;
+        }
+        for (File file : files)
+        {
+            String name = file.getName();
+            int dot = name.indexOf('.');
+            if (dot == -1 || !name.substring(dot).matches("\\.(deps\\.)?json(\\.tmp)?")
+                || current.contains(name.substring(0, dot)))
+            {
+                continue;
+            }
+            if (!file.delete())
+            {
+                log.println("Could not delete stale metabase fragment " + file);
+            }
+        }
+    }
+
+    /**
+     * @return the dependencies a cached fragment was generated with, null if there are none
+     */
+    private static JSONObject readMeta(File file)
+    {
+        if (!file.exists())
+        {
+            return null;
+        }
+        try {
+            Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            try {
+                return new JSONObject(new JSONTokener(reader));
+            } finally {
+                reader.close();
+            }
+        } catch (Exception e) {
+            // regenerate it
+            return null;
+        }
+    }
+
+    private static void writeMeta(File file, JSONObject meta) throws Exception
+    {
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"), 65536);
+        try {
+            meta.write(writer);
+        } finally {
+            writer.close();
+        }
+        replace(tmp, file);
+    }
+
+    private static void replace(File tmp, File file)
+    {
+        if (!tmp.renameTo(file))
+        {
+            file.delete();
+            tmp.renameTo(file);
+        }
+    }
+
+    /**
+     * copy the classes of a fragment (the object without its braces) to the output
+     *
+     * @return whether there were any
+     */
+    private static boolean appendFragment(File file, Writer out, boolean first) throws Exception
+    {
+        if (file.length() <= 2)
+        {
+            // {}
+            return false;
+        }
+        if (!first)
+        {
+            out.write(',');
+        }
+        Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), 65536);
+        try {
+            // skip the opening brace, and hold back the last character read until we know it's not the closing one
+            reader.read();
+            char[] buf = new char[65536];
+            int held = -1;
+            int read;
+            while ((read = reader.read(buf)) != -1)
+            {
+                if (read == 0)
+                {
+                    continue;
+                }
+                if (held != -1)
+                {
+                    out.write(held);
+                }
+                out.write(buf, 0, read - 1);
+                held = buf[read - 1];
+            }
+        } finally {
+            reader.close();
+        }
+        return true;
+    }
+
+    /**
+     * this class returns JSON as System.out, for the jars (and AARs) on the classpath. Takes optional arguments:
+     * --threads=N sets how many threads parse classes (defaults to one per processor, 1 parses sequentially)
+     * --fragments=DIR caches the metabase of each jar in DIR and reuses it while the jar is unchanged
+     * --format=binary writes the metabase in the format of BinaryWriter instead of JSON (not cached in fragments)
+     * --dedupe-inherited writes the interfaces an interface inherits methods from ("flattens") instead of their methods
+     * --roots=FILE only writes the classes reachable from those listed in FILE, one per line (not cached in fragments)
+     * --shards=DIR writes the classes of each package to files in DIR, and their index to the output instead (see ShardWriter, not cached in fragments)
+     * --parser=bcel parses whole class files with BCEL, rather than only what we need of them (see HeaderParser)
+     * --bounded-memory lets go of classes once they're written rather than keeping them all (see ClassRepository), and reports the peak heap usage
+     * --verbose logs the classes left out because they failed to parse or write
+     *
+     * or with --daemon=FILE (and optionally --daemon-version=VERSION), keeps running to generate
+     * the metabase for each request sent to it instead (see serve)
+     */
+    public static void main(String[] args) throws Exception
+    {
+        File daemon = null;
+        String version = "";
+        for (String arg : args)
+        {
+            if (arg.startsWith("--daemon="))
+            {
+                daemon = new File(arg.substring("--daemon=".length()));
+            }
+            else if (arg.startsWith("--daemon-version="))
+            {
+                version = arg.substring("--daemon-version=".length());
+            }
+        }
+        if (daemon != null)
+        {
+            serve(daemon, version);
+            return;
+        }
+
+        ClassPath cp = new ClassPath();
+        String classpath = cp.getClassPath();
+        String[] tokens = classpath.split(File.pathSeparator);
+        // Remove the first two tokens as these are our internal BCEL and json dependencies
+        List<String> tokenList = Arrays.asList(tokens).subList(2, tokens.length);
+        run(Arrays.asList(args), tokenList, System.out);
+    }
+
+    /**
+     * write the metabase of the given classpath entries to out, as directed by the arguments
+     * main takes, and close it
      */
-    private static void enumerate(String filename, Enumeration<? extends ZipEntry> e, JSONWriter writer, Set<String> uniques)
-            throws Exception
+    private static void run(List<String> args, List<String> tokenList, OutputStream out) throws Exception
     {
-        while (e.hasMoreElements())
+        int threads = Runtime.getRuntime().availableProcessors();
+        File fragments = null;
+        boolean binary = false;
+        Set<String> roots = null;
+        File shards = null;
+        dedupeInherited = false;
+        fullParse = false;
+        boundedMemory = false;
+        verbose = false;
+        for (String arg : args)
         {
-            String entry = e.nextElement().toString();
-            if (((filename.endsWith("android.jar") && whitelist.matcher(entry).find()) || true) && !blacklist.matcher(entry).find() && isClass.matcher(entry).find())
+            if (arg.startsWith("--threads="))
             {
-                String classname = entry.replaceAll("/", ".").replace(".class", "");
-                if (uniques.contains(classname))
-                {
-                    continue;
-                }
+                threads = Math.max(1, Integer.parseInt(arg.substring("--threads=".length())));
+            }
+            else if (arg.startsWith("--fragments="))
+            {
+                fragments = new File(arg.substring("--fragments=".length()));
+            }
+            else if (arg.equals("--dedupe-inherited"))
+            {
+                dedupeInherited = true;
+            }
+            else if (arg.equals("--format=binary"))
+            {
+                binary = true;
+            }
+            else if (arg.startsWith("--shards="))
+            {
+                shards = new File(arg.substring("--shards=".length()));
+            }
+            else if (arg.equals("--parser=bcel"))
+            {
+                fullParse = true;
+            }
+            else if (arg.equals("--bounded-memory"))
+            {
+                boundedMemory = true;
+            }
+            else if (arg.equals("--verbose"))
+            {
+                verbose = true;
+            }
+            else if (arg.startsWith("--roots="))
+            {
+                roots = new HashSet<String>();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        new FileInputStream(arg.substring("--roots=".length())), "UTF-8"));
                 try {
-                    JavaClass cls = repo.loadClass(classname);
-                    // skip private/anonymous classes but keep abstract and package-level classes
-                    // because there may be other public classes extending them
-                    if ((cls.isPublic() || cls.isProtected() || cls.isAbstract() || isPackagePrivate(cls))
-                            && !anonymousClass.matcher(classname).matches()) {
-                        writer.key(classname);
-                        writer.object();
-                        asJSON(cls, writer);
-                        writer.endObject();
+                    String line;
+                    while ((line = reader.readLine()) != null)
+                    {
+                        if (!line.trim().isEmpty())
+                        {
+                            roots.add(line.trim());
+                        }
                     }
+                } finally {
+                    reader.close();
+                }
+            }
+        }
+        // what lookups found in a previous run may not hold for this one
+        inheritedMethods.clear();
 
-                    uniques.add(classname);
-                } catch (Throwable t) {
-                    // TODO Spit an error to System.err?
+        // the jars stay open while we read their classes
+        List<ZipFile> jars = new ArrayList<ZipFile>();
+        classEntries = new HashMap<String, ClassEntry>();
+        Repository cached = repo;
+        if (boundedMemory)
+        {
+            // rather than holding on to (or adding to) the daemon's classes
+            repo = new ClassRepository(cached.getClassPath(), BOUNDED_CACHE_SIZE);
+            resetPeakHeap();
+        }
+        try {
+            for (String token : tokenList)
+            {
+                if (token.endsWith(".jar") || token.endsWith(".zip") || token.endsWith(".aar"))
+                {
+                    jars.add(new ZipFile(token));
                 }
             }
+            run(jars, fragments, binary, shards, roots, threads, out);
+        } finally {
+            classEntries = null;
+            for (ZipFile jar : jars)
+            {
+                jar.close();
+            }
+            if (boundedMemory)
+            {
+                repo = cached;
+                inheritedMethods.clear();
+                log.println("Peak heap usage: " + (peakHeap() >> 20) + " MB of " + (Runtime.getRuntime().maxMemory() >> 20) + " MB");
+            }
+        }
+    }
+
+    private static void resetPeakHeap()
+    {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                pool.resetPeakUsage();
+            }
         }
     }
 
     /**
-     * add access modifiers for a field or method
+     * the peak heap usage since resetPeakHeap(). The sum of each pool's peak, which may have
+     * been reached at different times, so it's an upper bound
      */
-    private static JSONArray addAttributes(AccessFlags obj)
+    private static long peakHeap()
     {
-        JSONArray json = new JSONArray();
-
-        if (obj.isFinal())
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
         {
-            json.put("final");
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                peak += pool.getPeakUsage().getUsed();
+            }
         }
-        if (obj.isAbstract())
+        return peak;
+    }
+
+    private static void run(List<ZipFile> jars, File fragments, boolean binary, File shards, Set<String> roots, int threads, OutputStream out) throws Exception
+    {
+        Writer pw = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 65536);
+        if (fragments != null && !binary && shards == null && roots == null)
         {
-            json.put("abstract");
+            try {
+                generateFromFragments(jars, fragments, pw, threads);
+            } finally {
+                pw.close();
+            }
+            return;
         }
-        if (obj.isPrivate())
+
+        JSONWriter writer;
+        if (binary)
         {
-            json.put("private");
+            writer = new BinaryWriter(new BufferedOutputStream(out, 65536));
         }
-        if (obj.isProtected())
+        else if (shards != null)
         {
-            json.put("protected");
+            writer = new ShardWriter(shards);
         }
-        if (obj.isPublic())
+        else
         {
-            json.put("public");
+            writer = new JSONWriter(pw);
+            writer.object();
+            writer.key("classes");
+            writer.object();
         }
-        if (obj.isStatic())
-        {
-            json.put("static");
+        try {
+            Set<String> uniques = new HashSet<String>();
+            List<String> classnames = new ArrayList<String>();
+            for (ZipFile jar : jars)
+            {
+                enumerate(jar, classnames, uniques);
+            }
+            if (roots != null)
+            {
+                generateReachable(classnames, roots, writer);
+            }
+            else
+            {
+                generateAll(classnames, writer, threads);
+            }
+            if (binary)
+            {
+                ((BinaryWriter) writer).finish();
+                return;
+            }
+            if (shards != null)
+            {
+                ((ShardWriter) writer).finish(pw);
+                return;
+            }
+            writer.endObject();
+            writer.endObject();
+        } finally {
+            if (binary)
+            {
+                out.close();
+            }
+            else
+            {
+                pw.close();
+            }
         }
-        if (obj.isNative())
-        {
-            json.put("native");
+    }
+
+    /**
+     * Keep running and generate the metabase for each request, so a build doesn't have to wait
+     * for the JVM to start (and warm up) to generate it, and the classes parsed for one
+     * request are reused by the next as long as the classpath doesn't change.
+     *
+     * We listen on a port of the loopback interface, and write it to the given file along
+     * with the version and a random token, which a client has to send with each request.
+     * A client connects, and sends a request as a single line of JSON:
+     *
+     *   {"token": ..., "classpath": [jars...], "args": [arguments of main...], "output": FILE, "gzip": true|false}
+     *
+     * or {"token": ..., "stop": true} to stop the daemon. Once done, we answer with a single line of JSON:
+     * {"ok": true, "log": ...} or {"ok": false, "error": ..., "log": ...}, and close the connection.
+     * Requests are handled one at a time, and we exit when there's been none for DAEMON_IDLE_TIMEOUT.
+     */
+    private static void serve(File stateFile, String version) throws Exception
+    {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        server.setSoTimeout(DAEMON_IDLE_TIMEOUT);
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        String token = hex(random);
+
+        JSONObject state = new JSONObject();
+        state.put("port", server.getLocalPort());
+        state.put("token", token);
+        state.put("version", version);
+        File tmp = new File(stateFile.getPath() + ".tmp");
+        tmp.delete();
+        Writer stateWriter = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            // only for the user running us, it holds the token
+            tmp.setReadable(false, false);
+            tmp.setReadable(true, true);
+            state.write(stateWriter);
+        } finally {
+            stateWriter.close();
         }
-        if (obj.isSynchronized())
-        {
-            json.put("synchronized");
+        replace(tmp, stateFile);
+
+        try {
+            while (true)
+            {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+                try {
+                    if (!handle(socket, token))
+                    {
+                        break;
+                    }
+                } catch (IOException e) {
+                    // the client went away
+                } finally {
+                    socket.close();
+                }
+            }
+        } finally {
+            server.close();
+            // unless another daemon has taken over
+            JSONObject current = readMeta(stateFile);
+            if (current != null && token.equals(current.optString("token")))
+            {
+                stateFile.delete();
+            }
         }
-        return json;
     }
 
     /**
-     * this class takes no arguments and returns JSON as System.out
+     * handle a request to the daemon
+     *
+     * @return whether to keep running
      */
-    public static void main(String[] args) throws Exception
+    private static boolean handle(Socket socket, String token) throws IOException
     {
-        ClassPath cp = new ClassPath();
-        String classpath = cp.getClassPath();
-        String[] tokens = classpath.split(File.pathSeparator);
-        // Remove the first two tokens as these are our internal BCEL and json dependencies
-        List<String> tokenList = Arrays.asList(tokens).subList(2, tokens.length);
+        socket.setSoTimeout(DAEMON_READ_TIMEOUT);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        JSONObject response = new JSONObject();
+        boolean keepRunning = true;
+        try {
+            String line = reader.readLine();
+            JSONObject request = new JSONObject(line != null ? line : "{}");
+            if (!token.equals(request.optString("token")))
+            {
+                throw new IllegalArgumentException("Invalid token");
+            }
+            if (request.optBoolean("stop"))
+            {
+                keepRunning = false;
+            }
+            else
+            {
+                log = new PrintStream(messages, true, "UTF-8");
+                generate(request);
+            }
+            response.put("ok", true);
+        } catch (Throwable t) {
+            response.put("ok", false);
+            response.put("error", t.toString());
+            if (t instanceof OutOfMemoryError)
+            {
+                // start over with an empty repository
+                repo.clear();
+            }
+        } finally {
+            log.flush();
+            log = System.err;
+        }
+        response.put("log", messages.toString("UTF-8"));
+        Writer writer = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+        writer.write(response.toString());
+        writer.write('\n');
+        writer.flush();
+        return keepRunning;
+    }
 
-        OutputStreamWriter pw = new OutputStreamWriter(System.out, "UTF-8");
-        JSONWriter writer = new JSONWriter(pw);
-        writer.object();
-        writer.key("classes");
-        writer.object();
-        Set<String> uniques = new HashSet<String>();
-        for (String token : tokenList)
+    /**
+     * generate the metabase for a request to the daemon
+     */
+    private static void generate(JSONObject request) throws Exception
+    {
+        // the classpath we'd have been run with: the jars come right after our own
+        // (the JVM's boot and extension jars may come before and after those)
+        List<String> tokens = new ArrayList<String>(Arrays.asList(ClassPath.getClassPath().split(File.pathSeparator)));
+        String[] own = System.getProperty("java.class.path").split(File.pathSeparator);
+        int insert = tokens.indexOf(own[own.length - 1]) + 1;
+        JSONArray jars = request.getJSONArray("classpath");
+        for (int i = 0; i < jars.length(); i++)
         {
-            if (token.endsWith(".jar"))
+            // like the JVM's, skipping those that don't exist
+            if (new File(jars.getString(i)).exists())
             {
-                JarFile jarFile = new JarFile(token);
-                enumerate(token, jarFile.entries(), writer, uniques);
+                tokens.add(insert++, jars.getString(i));
             }
-            else if (token.endsWith(".zip"))
+        }
+        String classpath = String.join(File.pathSeparator, tokens);
+
+        // keep the classes we've parsed while none of the jars changed
+        StringBuilder key = new StringBuilder(classpath);
+        for (String token : tokens)
+        {
+            File file = new File(token);
+            key.append('\n').append(file.length()).append(':').append(file.lastModified());
+        }
+        if (!key.toString().equals(repoKey))
+        {
+            if (repoKey != null)
             {
-                ZipFile zipFile = new ZipFile(token);
-                enumerate(token, zipFile.entries(), writer, uniques);
+                // one of ours rather than the system classpath's
+                try {
+                    repo.getClassPath().close();
+                } catch (Exception e) {
+                    // not every kind of entry can be closed (i.e. the JDK's modules)
+                }
             }
+            repo = new ClassRepository(new ClassPath(classpath));
+            repoKey = key.toString();
         }
-        writer.endObject();
-        writer.endObject();
-        pw.close();
+
+        List<String> args = new ArrayList<String>();
+        JSONArray requestArgs = request.optJSONArray("args");
+        for (int i = 0; requestArgs != null && i < requestArgs.length(); i++)
+        {
+            args.add(requestArgs.getString(i));
+        }
+        OutputStream out = new FileOutputStream(request.getString("output"));
+        if (request.optBoolean("gzip"))
+        {
+            out = new GZIPOutputStream(out, 65536);
+        }
+        // Remove the first two tokens as these are our internal BCEL and json dependencies
+        run(args, tokens.subList(2, tokens.size()), out);
     }
 
     private static void asJSON(JavaClass javaClass, JSONWriter writer)
@@ -205,7 +2067,7 @@ public class JavaMetabaseGenerator
 
         // attributes
         writer.key("attributes");
-        writer.value(addAttributes(javaClass));
+        writeAttributes(javaClass, writer);
 
         // metatype
         writer.key("metatype");
@@ -213,48 +2075,180 @@ public class JavaMetabaseGenerator
 
         // methods
         writer.key("methods");
-        JSONObject methodsJSON = new JSONObject();
-        Method methods[] = javaClass.getMethods();
-        generateMethodsMetadata(methods, methodsJSON);
+        writer.object();
+        // A HashMap filled in the same order as the JSONObject we used to build keeps the output the same
+        Map<String, List<Method>> overloads = new HashMap<String, List<Method>>();
+        collectMethods(javaClass.getMethods(), overloads);
 
+        InheritedMethods inherited = null;
         if (javaClass.isInterface()) {
-            generateMethodsFromImplementedInterfaces(javaClass, methodsJSON);
+            if (dedupeInherited) {
+                inherited = inheritedMethods(javaClass);
+            } else {
+                collectMethodsFromImplementedInterfaces(javaClass, overloads);
+            }
         }
 
-        writer.value(methodsJSON);
+        for (Map.Entry<String, List<Method>> entry : overloads.entrySet())
+        {
+            writer.key(entry.getKey());
+            writer.array();
+            for (Method method : entry.getValue())
+            {
+                writeMethod(method, writer);
+            }
+            writer.endArray();
+        }
+        writer.endObject();
+
+        // the interfaces whose methods would have been added to ours, in that order;
+        // their own methods are in their entries
+        if (inherited != null && inherited.types.length > 0) {
+            writer.key("flattens");
+            writer.array();
+            for (String type : inherited.types)
+            {
+                writer.value(type);
+            }
+            writer.endArray();
+        }
 
         // properties
         writer.key("properties");
-        JSONObject propertiesJSON = new JSONObject();
-        Field fields[] = javaClass.getFields();
-        for (Field field : fields)
+        writer.object();
+        Map<String, Field> fields = new HashMap<String, Field>();
+        for (Field field : javaClass.getFields())
         {
             // Skip private and package-level fields entirely to save space
             // since we don't want them for now
             if (!field.isPublic() && !field.isProtected()) {
                 continue;
             }
+            fields.put(field.getName(), field);
+        }
+        for (Field field : fields.values())
+        {
+            writer.key(field.getName());
+            writeField(field, writer);
+        }
+        writer.endObject();
+    }
+
+    /**
+     * write the access modifiers for a class, field or method
+     */
+    private static void writeAttributes(AccessFlags obj, JSONWriter writer)
+    {
+        writer.array();
+        if (obj.isFinal())
+        {
+            writer.value("final");
+        }
+        if (obj.isAbstract())
+        {
+            writer.value("abstract");
+        }
+        if (obj.isPrivate())
+        {
+            writer.value("private");
+        }
+        if (obj.isProtected())
+        {
+            writer.value("protected");
+        }
+        if (obj.isPublic())
+        {
+            writer.value("public");
+        }
+        if (obj.isStatic())
+        {
+            writer.value("static");
+        }
+        if (obj.isNative())
+        {
+            writer.value("native");
+        }
+        if (obj.isSynchronized())
+        {
+            writer.value("synchronized");
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Writes the metadata of a field. The keys are in the order the JSONObject we used
+     * to build wrote them in.
+     */
+    private static void writeField(Field field, JSONWriter writer)
+    {
+        Object value = field.getConstantValue();
+        writer.object();
+        writer.key("instance");
+        writer.value(!field.isStatic());
+        writer.key("name");
+        writer.value(field.getName());
+        writer.key("attributes");
+        writeAttributes(field, writer);
+        writer.key("metatype");
+        writer.value(value != null ? "constant" : "field");
+        writer.key("type");
+        writer.value(field.getType());
+        if (value != null)
+        {
+            writer.key("value");
+            writer.value(value);
+        }
+        writer.endObject();
+    }
 
-            JSONObject fieldJSON = new JSONObject();
-            fieldJSON.put("name", field.getName());
-            fieldJSON.put("attributes", addAttributes(field));
-            fieldJSON.put("type", field.getType());
-            fieldJSON.put("value", field.getConstantValue());
-            fieldJSON.put("metatype", field.getConstantValue() != null ? "constant" : "field");
-            fieldJSON.put("attributes", addAttributes(field));
-            fieldJSON.put("instance",!field.isStatic());
-            propertiesJSON.put(field.getName(), fieldJSON);
+    /**
+     * Writes the metadata of a method. The keys are in the order the JSONObject we used
+     * to build wrote them in.
+     */
+    private static void writeMethod(Method method, JSONWriter writer)
+    {
+        writer.object();
+        writer.key("args");
+        writer.array();
+        for (Type type : method.getArgumentTypes())
+        {
+            writer.object();
+            writer.key("type");
+            writer.value(type);
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.key("instance");
+        writer.value(!method.isStatic());
+        writer.key("signature");
+        writer.value(method.getSignature());
+        writer.key("name");
+        writer.value(method.getName());
+        writer.key("attributes");
+        writeAttributes(method, writer);
+        writer.key("returnType");
+        writer.value(method.getReturnType());
+        writer.key("exceptions");
+        writer.array();
+        ExceptionTable exceptions = method.getExceptionTable();
+        if (exceptions != null)
+        {
+            for (String exname : exceptions.getExceptionNames())
+            {
+                writer.value(exname);
+            }
         }
-        writer.value(propertiesJSON);
+        writer.endArray();
+        writer.endObject();
     }
 
     /**
-     * Generates the metadata for all passed methods.
+     * Groups the passed methods we want metadata for by name.
      *
-     * @param Method methods[] Array of methods to generate metadata for.
-     * @param JSONObject methodsJSON JSON object where the metadata will be stored.
+     * @param Method methods[] Array of methods to collect.
+     * @param Map overloads Methods by name, where the methods will be added.
      */
-    private static void generateMethodsMetadata(Method methods[], JSONObject methodsJSON)
+    private static void collectMethods(Method methods[], Map<String, List<Method>> overloads)
     {
         for (Method method : methods)
         {
@@ -264,64 +2258,129 @@ public class JavaMetabaseGenerator
                 continue;
             }
 
-            JSONObject methodJSON = new JSONObject();
-            methodJSON.put("attributes", addAttributes(method));
-            methodJSON.put("signature", method.getSignature());
-            methodJSON.put("instance", !method.isStatic());
-            methodJSON.put("name", method.getName());
-
-            JSONArray overloads;
-            if (methodsJSON.has(method.getName()))
-            {
-                overloads = methodsJSON.getJSONArray(method.getName());
-            }
-            else
+            List<Method> named = overloads.get(method.getName());
+            if (named == null)
             {
-                overloads = new JSONArray();
+                named = new ArrayList<Method>();
+                overloads.put(method.getName(), named);
             }
-            overloads.put(methodJSON);
-            methodsJSON.put(method.getName(), overloads);
-            JSONArray argumentJSON = new JSONArray();
-            for (Type type : method.getArgumentTypes())
+            named.add(method);
+        }
+    }
+
+    /**
+     * look up a class among those that have been loaded before the one being written,
+     * as they would have been when writing every class of the classpath in order
+     */
+    private static JavaClass findLoadedClass(String classname)
+    {
+        if (fragment == null || !fragment.isProvided(classname))
+        {
+            // the repository may hold classes that wouldn't have been loaded yet (we skip
+            // classes when writing those reachable from roots, and a daemon's repository
+            // outlives a run), so go by position, and load it if it would have been
+            Integer loaded = positions.get(classname);
+            if (loaded == null || loaded >= position)
             {
-                JSONObject obj = new JSONObject();
-                obj.put("type", type);
-                argumentJSON.put(obj);
+                return null;
             }
-            methodJSON.put("args", argumentJSON);
-            methodJSON.put("returnType", method.getReturnType());
-            JSONArray exceptionsJSON = new JSONArray();
-            ExceptionTable exceptions = method.getExceptionTable();
-            if (exceptions != null)
+        }
+        try {
+            return repo.loadClass(classname);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /**
+     * Collects the methods from all interfaces a class or interface
+     * implements.
+     *
+     * @param JavaClass javaClass Java class or interface to check for implemented interfaces
+     * @param Map overloads Methods by name, where the methods will be added.
+     */
+    private static void collectMethodsFromImplementedInterfaces(JavaClass javaClass, Map<String, List<Method>> overloads)
+    {
+        collectMethods(inheritedMethods(javaClass).methods, overloads);
+    }
+
+    /**
+     * The methods a class or interface inherits from the interfaces it implements (recursively,
+     * super-interfaces first), computed once per type rather than for every type extending it.
+     *
+     * Which super-interfaces can be found depends on what has been loaded so far, so we also
+     * keep the names of those that couldn't be, and compute it again once any of them can.
+     */
+    private static class InheritedMethods
+    {
+        final Method[] methods;
+        /**
+         * the interfaces the methods come from, in the order they're added (may repeat)
+         */
+        final String[] types;
+        final Set<String> missing;
+
+        InheritedMethods(Method[] methods, String[] types, Set<String> missing)
+        {
+            this.methods = methods;
+            this.types = types;
+            this.missing = missing;
+        }
+
+        boolean isCurrent()
+        {
+            for (String classname : missing)
             {
-                for (String exname : exceptions.getExceptionNames())
+                if (findLoadedClass(classname) != null)
                 {
-                    exceptionsJSON.put(exname);
+                    return false;
                 }
             }
-            methodJSON.put("exceptions", exceptionsJSON);
+            return true;
         }
     }
 
     /**
-     * Generates method metadata for all methods from interfaces a class or
-     * interface implements.
-     *
-     * @param JavaClass javaClass Java class or interface to check for implemented interfaces
-     * @param JSONObject methodssJSON JSON object to store method metadata
+     * with --bounded-memory, only the most recently used BOUNDED_CACHE_SIZE are kept
      */
-    private static void generateMethodsFromImplementedInterfaces(JavaClass javaClass, JSONObject methodssJSON)
+    private static final Map<String, InheritedMethods> inheritedMethods = new LinkedHashMap<String, InheritedMethods>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, InheritedMethods> eldest)
+        {
+            return boundedMemory && size() > BOUNDED_CACHE_SIZE;
+        }
+    };
+
+    private static InheritedMethods inheritedMethods(JavaClass javaClass)
     {
-        String[] implementedInterfacesNames = javaClass.getInterfaceNames();
-        for (String interfaceName : implementedInterfacesNames) {
-            JavaClass interfaceClass = repo.findClass(interfaceName);
+        InheritedMethods inherited = inheritedMethods.get(javaClass.getClassName());
+        if (inherited != null && inherited.isCurrent())
+        {
+            return inherited;
+        }
+        List<Method> methods = new ArrayList<Method>();
+        List<String> types = new ArrayList<String>();
+        Set<String> missing = new HashSet<String>();
+        for (String interfaceName : javaClass.getInterfaceNames()) {
+            JavaClass interfaceClass = findLoadedClass(interfaceName);
             if (interfaceClass == null) {
+                missing.add(interfaceName);
                 continue;
             }
 
-            Method methods[] = interfaceClass.getMethods();
-            generateMethodsFromImplementedInterfaces(interfaceClass, methodssJSON);
-            generateMethodsMetadata(methods, methodssJSON);
+            InheritedMethods fromInterface = inheritedMethods(interfaceClass);
+            methods.addAll(Arrays.asList(fromInterface.methods));
+            types.addAll(Arrays.asList(fromInterface.types));
+            missing.addAll(fromInterface.missing);
+            methods.addAll(Arrays.asList(interfaceClass.getMethods()));
+            types.add(interfaceName);
+        }
+        inherited = new InheritedMethods(methods.toArray(new Method[methods.size()]),
+                types.toArray(new String[types.size()]), missing.isEmpty() ? Collections.<String>emptySet() : missing);
+        // only interfaces get looked up again, by the classes implementing them
+        if (!boundedMemory || javaClass.isInterface())
+        {
+            inheritedMethods.put(javaClass.getClassName(), inherited);
         }
+        return inherited;
     }
 }
@@ -22,6 +22,9 @@ class GenerateMetabaseTask extends BaseFileTask {
 
 		this._builder = null;
 		this._metabase = null;
+		this._daemon = false;
+		this._boundedMemory = false;
+		this._shards = false;
 	}
 
 	/**
@@ -51,6 +54,36 @@ class GenerateMetabaseTask extends BaseFileTask {
 		this._builder = builder;
 	}
 
+	/**
+	 * Sets whether to keep the metabase generator running in the background
+	 * between builds, rather than starting a JVM for each metabase.
+	 *
+	 * @param {Boolean} daemon
+	 */
+	set daemon(daemon) {
+		this._daemon = daemon;
+	}
+
+	/**
+	 * Sets whether to keep the metabase generator's memory use down, for
+	 * machines running several builds at once.
+	 *
+	 * @param {Boolean} boundedMemory
+	 */
+	set boundedMemory(boundedMemory) {
+		this._boundedMemory = boundedMemory;
+	}
+
+	/**
+	 * Sets whether to split the metabase up by package, so only the packages
+	 * the app uses get read.
+	 *
+	 * @param {Boolean} shards
+	 */
+	set shards(shards) {
+		this._shards = shards;
+	}
+
 	/**
 	 * Gets the generated metabse
 	 *
@@ -76,6 +109,15 @@ class GenerateMetabaseTask extends BaseFileTask {
 			await fs.ensureDir(this._outputDirectory);
 			options.cacheDir = this._outputDirectory;
 		}
+		if (this._daemon) {
+			options.daemon = true;
+		}
+		if (this._boundedMemory) {
+			options.boundedMemory = true;
+		}
+		if (this._shards) {
+			options.shards = true;
+		}
 
 		return new Promise((resolve, reject) => {
 			metabase.metabase.loadMetabase(inputFiles, options, (err, json) => {
@@ -0,0 +1,231 @@
+'use strict';
+
+const BaseFileTask = require('appc-tasks').BaseFileTask;
+const crypto = require('crypto');
+const fs = require('fs-extra');
+const metabase = require('../metabase');
+const path = require('path');
+
+const HASH_FILENAME = 'sources.sha';
+
+/**
+ * Generates Java subclasses and interface implementations ahead of time for all
+ * types the app's JS extends or implements, so the runtime doesn't have to
+ * generate these classes on the device.
+ *
+ * Every source is compiled once to verify it. Types we can't generate valid
+ * source for are left out, the runtime keeps generating those on demand.
+ */
+class GeneratePrebuiltClassesTask extends BaseFileTask {
+
+	constructor(taskInfo) {
+		super(taskInfo);
+
+		this._metabase = null;
+		this._references = null;
+		this._classPath = [];
+		this._generatedClasses = [];
+	}
+
+	/**
+	 * Gets the output directory where all classes will be generated to
+	 *
+	 * @return {String} Full path to the output directory
+	 */
+	get outputDirectory() {
+		return this._outputDirectory;
+	}
+
+	/**
+	 * Sets the output directory where all classes will be generated to
+	 *
+	 * @param {String} outputPath Full path to the output directory
+	 */
+	set outputDirectory(outputPath) {
+		this._outputDirectory = outputPath;
+		this._sourceDirectory = path.join(outputPath, 'src');
+		this._packageDirectory = path.join(this._sourceDirectory, ...metabase.prebuild.PACKAGE_NAME.split('.'));
+		this._hashPathAndFilename = path.join(outputPath, HASH_FILENAME);
+	}
+
+	/**
+	 * Root directory of the generated Java sources, to be compiled into the app
+	 *
+	 * @return {String} Full path to the source directory
+	 */
+	get sourceDirectory() {
+		return this._sourceDirectory;
+	}
+
+	/**
+	 * Metabase that will be used to generate the classes
+	 *
+	 * @return {Object} Metabase object
+	 */
+	get metabase() {
+		return this._metabase;
+	}
+
+	/**
+	 * Sets the metabase object
+	 *
+	 * @param {Object} metabase
+	 */
+	set metabase(metabase) {
+		this._metabase = metabase;
+	}
+
+	/**
+	 * Mapping of source files and their referenced Java types
+	 *
+	 * @return {Map}
+	 */
+	get references() {
+		return this._references;
+	}
+
+	/**
+	 * Sets the Java type reference map
+	 *
+	 * @param {Map} references
+	 */
+	set references(references) {
+		this._references = references;
+	}
+
+	/**
+	 * Sets the JARs the app gets compiled against, used to verify the generated sources
+	 *
+	 * @param {Array.<String>} classPath
+	 */
+	set classPath(classPath) {
+		this._classPath = classPath;
+	}
+
+	/**
+	 * Names of the generated source files (after verification)
+	 *
+	 * @return {Array.<String>}
+	 */
+	get generatedClasses() {
+		return this._generatedClasses;
+	}
+
+	/**
+	 * Generates and verifies the classes, unless they're unchanged since the last build
+	 *
+	 * @return {Promise}
+	 */
+	async runTaskAction() {
+		const extendedClasses = this.getAllReferencedClasses('extendedClasses');
+		const implementedClasses = this.getAllReferencedClasses('implementedClasses');
+		if (extendedClasses.length === 0 && implementedClasses.length === 0) {
+			this.logger.trace('Skipping pre-generation of classes, no usage of extend/implement found ...');
+			await fs.remove(this._outputDirectory);
+			this._generatedClasses = [];
+			return;
+		}
+
+		const sources = metabase.prebuild.generateSources(this.metabase, extendedClasses, implementedClasses, this.getAllOverrideSets());
+		const hash = this.calculateHash(sources);
+		if (await this.isUpToDate(hash)) {
+			this.logger.trace('Pre-generated classes are up-to-date.');
+			this._generatedClasses = await fs.readdir(this._packageDirectory);
+			return;
+		}
+
+		await fs.emptyDir(this._outputDirectory);
+		await fs.ensureDir(this._packageDirectory);
+		await Promise.all(Object.keys(sources).map(fileName => {
+			return fs.writeFile(path.join(this._packageDirectory, fileName), sources[fileName]);
+		}));
+
+		const classesDirectory = path.join(this._outputDirectory, 'classes');
+		try {
+			const dropped = await new Promise((resolve, reject) => {
+				metabase.prebuild.verifySources(this._packageDirectory, this._classPath, classesDirectory, (err, dropped) => {
+					if (err) {
+						return reject(err);
+					}
+					resolve(dropped);
+				});
+			});
+			dropped.forEach(fileName => this.logger.debug(`Pre-generated ${fileName} does not compile, it will be generated at runtime`));
+			await fs.writeFile(this._hashPathAndFilename, hash);
+		} catch (err) {
+			// Without a compiler to verify them we can't ship any of them
+			this.logger.warn('Unable to verify pre-generated classes, they will be generated at runtime: ' + err);
+			await fs.emptyDir(this._packageDirectory);
+		}
+		await fs.remove(classesDirectory);
+
+		this._generatedClasses = await fs.readdir(this._packageDirectory);
+	}
+
+	/**
+	 * Gets a list of all types found by the reference scan under the given key
+	 *
+	 * @param {String} key Either 'extendedClasses' or 'implementedClasses'
+	 * @return {Array.<String>} Sorted array of unique Java type names
+	 */
+	getAllReferencedClasses(key) {
+		const classes = new Set();
+		this.references.forEach(fileInfo => {
+			(fileInfo[key] || []).forEach(className => classes.add(className));
+		});
+		return Array.from(classes).sort();
+	}
+
+	/**
+	 * Gets the sets of overridden method names the reference scan found for the extended types
+	 *
+	 * @return {Object} Sorted arrays of unique sets of method names, by Java type name
+	 */
+	getAllOverrideSets() {
+		const overrideSets = {};
+		this.references.forEach(fileInfo => {
+			const fileOverrideSets = fileInfo.overrideSets || {};
+			Object.keys(fileOverrideSets).forEach(className => {
+				const sets = overrideSets[className] || (overrideSets[className] = new Set());
+				fileOverrideSets[className].forEach(overrides => sets.add(overrides.join(',')));
+			});
+		});
+		Object.keys(overrideSets).forEach(className => {
+			overrideSets[className] = Array.from(overrideSets[className]).sort().map(joined => (joined ? joined.split(',') : []));
+		});
+		return overrideSets;
+	}
+
+	/**
+	 * Hash over the generated sources and the class path they get verified against
+	 *
+	 * @param {Object} sources Map of file names to source
+	 * @return {String}
+	 */
+	calculateHash(sources) {
+		const hash = crypto.createHash('sha1');
+		Object.keys(sources).sort().forEach(fileName => {
+			hash.update(fileName);
+			hash.update(sources[fileName]);
+		});
+		this._classPath.forEach(jarPath => hash.update(jarPath));
+		return hash.digest('hex');
+	}
+
+	/**
+	 * @param {String} hash Hash of the sources we're about to generate
+	 * @return {Promise<Boolean>} True if the last build generated (and verified) the same sources
+	 */
+	async isUpToDate(hash) {
+		try {
+			if (await fs.exists(this._hashPathAndFilename) && await fs.exists(this._packageDirectory)) {
+				return (await fs.readFile(this._hashPathAndFilename)).toString() === hash;
+			}
+		} catch (e) {
+			this.logger.trace('Reading pre-generated classes hash failed: ' + e);
+		}
+		return false;
+	}
+}
+
+module.exports = GeneratePrebuiltClassesTask;
@@ -188,9 +188,20 @@ class ScanReferencesTask extends IncrementalFileTask {
 	scanFileForHyperloopRequires(pathAndFilename) {
 		const result = this.extractAndReplaceHyperloopRequires(pathAndFilename);
 		if (result && result.usedClasses.length > 0) {
-			this._references.set(pathAndFilename, {
+			const fileInfo = {
 				usedClasses: result.usedClasses
-			});
+			};
+			// Only recorded when present, these drive ahead-of-time class generation
+			if (result.extendedClasses.length > 0) {
+				fileInfo.extendedClasses = result.extendedClasses;
+			}
+			if (Object.keys(result.overrideSets).length > 0) {
+				fileInfo.overrideSets = result.overrideSets;
+			}
+			if (result.implementedClasses.length > 0) {
+				fileInfo.implementedClasses = result.implementedClasses;
+			}
+			this._references.set(pathAndFilename, fileInfo);
 			return true;
 		}
 
@@ -202,7 +213,10 @@ class ScanReferencesTask extends IncrementalFileTask {
 	 * with the actual Hyperloop wrapper that represents that native type.
 	 *
 	 * @param {String} file Full path to the file to process
-	 * @return {Object} Object containing any found classes and the replaced file content
+	 * @return {Object} Object containing any found classes, and the classes that get extended (via
+	 * <code>Type.extend()</code>) or implemented (via <code>new Interface()</code>). For extended
+	 * classes whose overrides are given as an object literal, the sorted sets of overridden method
+	 * names by class name.
 	 */
 	extractAndReplaceHyperloopRequires(file) {
 		if (!fs.existsSync(file)) {
@@ -211,6 +225,9 @@ class ScanReferencesTask extends IncrementalFileTask {
 
 		const originalSource = fs.readFileSync(file, 'UTF-8');
 		let usedClasses = [];
+		const extendedClasses = [];
+		const implementedClasses = [];
+		const overrideSets = {};
 
 		// For typical require calls:
 		// Look for CallExpression with callee Identifier whose name property is "require"
@@ -240,6 +257,22 @@ class ScanReferencesTask extends IncrementalFileTask {
 		const HyperloopVisitor = {
 			// ES5-style require calls
 			CallExpression: function(p) {
+				// Type.extend({ ... }) generates a subclass of Type at runtime
+				const callee = p.node.callee;
+				if (t.isMemberExpression(callee) && !callee.computed && t.isIdentifier(callee.property, { name: 'extend' })) {
+					const extended = self.resolveReferencedType(p, callee.object);
+					if (extended && extendedClasses.indexOf(extended) === -1) {
+						extendedClasses.push(extended);
+					}
+					const overrides = extended && overrideNames(p.node.arguments[0]);
+					if (overrides) {
+						const sets = overrideSets[extended] || (overrideSets[extended] = []);
+						if (!sets.some(set => set.join(',') === overrides.join(','))) {
+							sets.push(overrides);
+						}
+					}
+				}
+
 				const theString = p.node.arguments[0];
 				let requireMatch;
 				if (p.get('callee').isIdentifier({name: 'require'}) && // Is this a require call?
@@ -268,6 +301,16 @@ class ScanReferencesTask extends IncrementalFileTask {
 					}
 				}
 			},
+			// new Interface({ ... }) generates an implementation of the interface at runtime
+			NewExpression: function(p) {
+				const implemented = self.resolveReferencedType(p, p.node.callee);
+				if (implemented && implementedClasses.indexOf(implemented) === -1) {
+					const type = self.metabase.classes[implemented];
+					if (type.metatype === 'interface') {
+						implementedClasses.push(implemented);
+					}
+				}
+			},
 			// ES6+-style imports
 			ImportDeclaration: function(p) {
 				const theString = p.node.source;
@@ -303,9 +346,51 @@ class ScanReferencesTask extends IncrementalFileTask {
 
 		return {
 			usedClasses: usedClasses,
+			extendedClasses: extendedClasses,
+			implementedClasses: implementedClasses,
+			overrideSets: overrideSets
 		};
 	}
 
+	/**
+	 * Resolves an expression to the Java type it refers to, if it's a direct require of a Java
+	 * type or an identifier bound to one through a require or import in the same file.
+	 *
+	 * @param {NodePath} p Path of the node the expression belongs to (used for scope lookups)
+	 * @param {Node} node The expression to resolve
+	 * @return {String|null} name used by hyperloop internally, or null
+	 */
+	resolveReferencedType(p, node) {
+		let className = null;
+		if (t.isCallExpression(node)) {
+			// require('android.view.View').extend(...)
+			className = requiredTypeName(node);
+		} else if (t.isIdentifier(node)) {
+			const binding = p.scope.getBinding(node.name);
+			if (!binding) {
+				return null;
+			}
+			const bindingPath = binding.path;
+			if (bindingPath.isVariableDeclarator()) {
+				// var View = require('android.view.View');
+				className = requiredTypeName(bindingPath.node.init);
+			} else if (bindingPath.isImportDefaultSpecifier() || bindingPath.isImportNamespaceSpecifier()) {
+				// import View from 'android.view.View';
+				className = bindingPath.parent.source.value;
+			} else if (bindingPath.isImportSpecifier()) {
+				// import { View } from 'android.view.*';
+				const packageName = bindingPath.parent.source.value;
+				if (packageName.endsWith('.*') && t.isIdentifier(bindingPath.node.imported)) {
+					className = packageName.slice(0, -1) + bindingPath.node.imported.name;
+				}
+			}
+		}
+		if (!className || className.endsWith('.*')) {
+			return null;
+		}
+		return this.validateTypeName(className);
+	}
+
 	/**
 	 * Given a java package import/require, returns the array of all types underneath that package.
 	 * Returns empty array is there are no types (which means the package import is invalid).
@@ -351,4 +436,45 @@ class ScanReferencesTask extends IncrementalFileTask {
 
 }
 
+/**
+ * @param {Node} node An expression
+ * @return {String|null} The module name if the node is a call like <code>require('some.Type')</code>, otherwise null
+ */
+function requiredTypeName(node) {
+	if (t.isCallExpression(node) && t.isIdentifier(node.callee, { name: 'require' })
+		&& node.arguments.length > 0 && t.isStringLiteral(node.arguments[0])) {
+		return node.arguments[0].value;
+	}
+	return null;
+}
+
+/**
+ * @param {Node} node The argument passed to <code>Type.extend()</code>
+ * @return {Array.<String>|null} Sorted names of the overridden methods if the overrides are an
+ * object literal with plain keys (what the runtime gets from <code>Object.keys()</code>), otherwise null
+ */
+function overrideNames(node) {
+	if (!t.isObjectExpression(node)) {
+		return null;
+	}
+	const names = [];
+	for (const property of node.properties) {
+		if (!(t.isObjectProperty(property) || t.isObjectMethod(property)) || property.computed) {
+			return null;
+		}
+		let name;
+		if (t.isIdentifier(property.key)) {
+			name = property.key.name;
+		} else if (t.isStringLiteral(property.key)) {
+			name = property.key.value;
+		} else {
+			return null;
+		}
+		if (names.indexOf(name) === -1) {
+			names.push(name);
+		}
+	}
+	return names.sort();
+}
+
 module.exports = ScanReferencesTask;
@@ -0,0 +1,214 @@
+const chai = require('chai');
+const expect = chai.expect;
+const fs = require('fs-extra');
+const os = require('os');
+const path = require('path');
+const binary = require('../metabase/binary');
+const metabase = require('../metabase/metabase');
+
+const NULL = 0;
+const FALSE = 1;
+const TRUE = 2;
+const STRING = 3;
+const NUMBER = 4;
+const ARRAY = 5;
+const OBJECT = 6;
+const END = 7;
+
+const testMetabase = {
+	classes: {
+		'android.app.Activity': {
+			superClass: 'android.view.ContextThemeWrapper',
+			attributes: [ 'public' ],
+			interfaces: [ 'android.view.Window$Callback' ],
+			metatype: 'class',
+			methods: {
+				onCreate: [ { args: [ { type: 'android.os.Bundle' } ], returnType: 'void', instance: true, attributes: [ 'protected' ] } ]
+			},
+			properties: {
+				RESULT_OK: { value: -1, type: 'int', instance: false, attributes: [ 'public', 'static', 'final' ] }
+			}
+		},
+		'android.view.View$OnClickListener': {
+			attributes: [ 'public', 'abstract' ],
+			metatype: 'interface',
+			methods: {
+				onClick: [ { args: [ { type: 'android.view.View' } ], returnType: 'void', instance: true, attributes: [ 'public', 'abstract' ] } ]
+			},
+			properties: {},
+			superClass: null,
+			deprecated: false
+		},
+		'hyperloop.test$Ünïcode': {
+			attributes: [ 'public' ],
+			metatype: 'class',
+			methods: {},
+			properties: { MAX: { value: 9007199254740991, type: 'long', instance: false, attributes: [ 'public', 'static', 'final' ] } }
+		}
+	}
+};
+
+/**
+ * Writes a metabase the way JavaMetabaseGenerator's BinaryWriter does.
+ *
+ * @param {Object} json The metabase
+ * @return {Buffer}
+ */
+function encode(json) {
+	const bytes = [];
+	const strings = [];
+	const indexes = new Map();
+	const classNames = [];
+	const classOffsets = [];
+
+	function varint(value) {
+		while (value > 0x7F) {
+			bytes.push((value % 128) | 0x80);
+			value = Math.floor(value / 128);
+		}
+		bytes.push(value);
+	}
+
+	function indexOf(string) {
+		if (!indexes.has(string)) {
+			indexes.set(string, strings.length);
+			strings.push(string);
+		}
+		return indexes.get(string);
+	}
+
+	function value(v) {
+		if (v === null) {
+			bytes.push(NULL);
+		} else if (typeof v === 'boolean') {
+			bytes.push(v ? TRUE : FALSE);
+		} else if (typeof v === 'number') {
+			bytes.push(NUMBER);
+			varint(indexOf(String(v)));
+		} else if (typeof v === 'string') {
+			bytes.push(STRING);
+			varint(indexOf(v));
+		} else if (Array.isArray(v)) {
+			bytes.push(ARRAY);
+			v.forEach(value);
+			bytes.push(END);
+		} else {
+			bytes.push(OBJECT);
+			Object.keys(v).forEach(key => {
+				varint(indexOf(key) + 1);
+				value(v[key]);
+			});
+			varint(0);
+		}
+	}
+
+	bytes.push(...Buffer.from('HLMB'));
+	varint(1);
+	Object.keys(json.classes).forEach(name => {
+		classNames.push(indexOf(name));
+		classOffsets.push(bytes.length);
+		value(json.classes[name]);
+	});
+	const stringsOffset = bytes.length;
+	varint(strings.length);
+	strings.forEach(string => {
+		const encoded = Buffer.from(string, 'utf8');
+		varint(encoded.length);
+		bytes.push(...encoded);
+	});
+	const indexOffset = bytes.length;
+	varint(classNames.length);
+	let previous = 0;
+	classNames.forEach((name, i) => {
+		varint(name);
+		varint(classOffsets[i] - previous);
+		previous = classOffsets[i];
+	});
+	const trailer = Buffer.alloc(8);
+	trailer.writeUInt32LE(stringsOffset, 0);
+	trailer.writeUInt32LE(indexOffset, 4);
+	return Buffer.concat([ Buffer.from(bytes), trailer, Buffer.from('HLMB') ]);
+}
+
+describe('binary metabase', () => {
+	let reader = null;
+	let metabase = null;
+
+	beforeEach(() => {
+		reader = new binary.BinaryMetabase(encode(testMetabase));
+		metabase = reader.toMetabase();
+	});
+
+	afterEach(() => {
+		reader = null;
+		metabase = null;
+	});
+
+	it('should reject buffers that are not a binary metabase', () => {
+		expect(() => binary.readMetabase(Buffer.from('{"classes":{}}'))).to.throw('Not a binary metabase');
+	});
+
+	it('should look up classes, decoding only those', () => {
+		expect(metabase.classes['android.app.Activity']).to.be.deep.equal(testMetabase.classes['android.app.Activity']);
+		expect(metabase.classes['android.app.Fragment']).to.be.undefined;
+		expect(Object.keys(reader.decoded)).to.be.deep.equal([ 'android.app.Activity' ]);
+		// decoded once
+		expect(metabase.classes['android.app.Activity']).to.be.equal(metabase.classes['android.app.Activity']);
+	});
+
+	it('should tell whether a class is in the metabase without decoding it', () => {
+		expect('android.view.View$OnClickListener' in metabase.classes).to.be.true;
+		expect('android.app.Fragment' in metabase.classes).to.be.false;
+		expect(Object.prototype.hasOwnProperty.call(metabase.classes, 'android.app.Activity')).to.be.true;
+		expect(Object.keys(reader.decoded)).to.be.empty;
+	});
+
+	it('should enumerate classes without decoding them', () => {
+		const names = [];
+		for (const name in metabase.classes) {
+			names.push(name);
+		}
+		expect(names).to.be.deep.equal(Object.keys(testMetabase.classes));
+		expect(Object.keys(metabase.classes)).to.be.deep.equal(Object.keys(testMetabase.classes));
+		expect(Object.keys(reader.decoded)).to.be.empty;
+	});
+
+	it('should read the same metabase as the JSON one', () => {
+		expect(JSON.parse(JSON.stringify(metabase))).to.be.deep.equal(testMetabase);
+	});
+});
+
+describe('binary metabase written by the generator', () => {
+	const jar = path.join(__dirname, '..', 'metabase', 'lib', 'json.jar');
+	let cacheDir = null;
+
+	function load(opts) {
+		return new Promise((resolve, reject) => {
+			metabase.loadMetabase([ jar ], Object.assign({ platform: 'android-test', cacheDir: cacheDir, force: true }, opts), (err, json) => {
+				if (err) {
+					return reject(err);
+				}
+				resolve(json);
+			});
+		});
+	}
+
+	before(function () {
+		this.timeout(120000);
+		cacheDir = fs.mkdtempSync(path.join(os.tmpdir(), 'hyperloop-binary-'));
+	});
+
+	after(() => {
+		fs.removeSync(cacheDir);
+	});
+
+	it('should read the same metabase as the generator writes as JSON', function () {
+		this.timeout(120000);
+		// one after the other, so the generator only gets compiled once
+		return load({}).then(json => load({ binary: true }).then(binaryMetabase => {
+			expect(Object.keys(json.classes)).to.not.be.empty;
+			expect(Object.keys(binaryMetabase.classes)).to.have.members(Object.keys(json.classes));
+			expect(JSON.parse(JSON.stringify(binaryMetabase))).to.be.deep.equal(json);
+		}));
+	});
+});
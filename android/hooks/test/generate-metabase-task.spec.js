@@ -68,6 +68,45 @@ describe('GenerateMetabaseTask', () => {
 			})).to.eventually.be.fulfilled;
 		});
 
+		it('should have the generator daemon generate the metabase if enabled', () => {
+			let metabaseMock = sinon.mock(metabase.metabase);
+			let loadMetabaseExpectations = metabaseMock.expects('loadMetabase');
+			loadMetabaseExpectations.withArgs(['dummy.jar'], { platform: `android-${dummyBuilder.realTargetSDK}`, daemon: true });
+			loadMetabaseExpectations.callsArgWith(2, null, {});
+			task.builder = dummyBuilder;
+			task.daemon = true;
+			task.addInputFile('dummy.jar');
+			return expect(task.runTaskAction().then(() => {
+				metabaseMock.verify();
+			})).to.eventually.be.fulfilled;
+		});
+
+		it('should keep the generator\'s memory use down if enabled', () => {
+			let metabaseMock = sinon.mock(metabase.metabase);
+			let loadMetabaseExpectations = metabaseMock.expects('loadMetabase');
+			loadMetabaseExpectations.withArgs(['dummy.jar'], { platform: `android-${dummyBuilder.realTargetSDK}`, boundedMemory: true });
+			loadMetabaseExpectations.callsArgWith(2, null, {});
+			task.builder = dummyBuilder;
+			task.boundedMemory = true;
+			task.addInputFile('dummy.jar');
+			return expect(task.runTaskAction().then(() => {
+				metabaseMock.verify();
+			})).to.eventually.be.fulfilled;
+		});
+
+		it('should split the metabase up by package if enabled', () => {
+			let metabaseMock = sinon.mock(metabase.metabase);
+			let loadMetabaseExpectations = metabaseMock.expects('loadMetabase');
+			loadMetabaseExpectations.withArgs(['dummy.jar'], { platform: `android-${dummyBuilder.realTargetSDK}`, shards: true });
+			loadMetabaseExpectations.callsArgWith(2, null, {});
+			task.builder = dummyBuilder;
+			task.shards = true;
+			task.addInputFile('dummy.jar');
+			return expect(task.runTaskAction().then(() => {
+				metabaseMock.verify();
+			})).to.eventually.be.fulfilled;
+		});
+
 		it('should pass through error if metabase genration failed', () => {
 			let testError = new Error('Metabase generation failed!');
 			let loadMetabaseStub = sinon.stub(metabase.metabase, 'loadMetabase');
@@ -0,0 +1,111 @@
+const chai = require('chai');
+const chaiAsPromised = require('chai-as-promised');
+const expect = chai.expect;
+const fs = require('fs');
+const GeneratePrebuiltClassesTask = require('../tasks/generate-prebuilt-classes-task');
+const metabase = require('../metabase');
+const mockFs = require('mock-fs');
+const path = require('path');
+const sinon = require('sinon');
+
+const noopBunyanLogger = {
+	trace: () => {},
+	debug: () => {},
+	info: () => {},
+	warn: () => {},
+	error: () => {},
+};
+const packageDirectory = path.join('output', 'src', 'hyperloop', 'prebuilt');
+let task = null;
+let generateSourcesStub = null;
+let verifySourcesStub = null;
+
+chai.use(chaiAsPromised);
+
+describe('GeneratePrebuiltClassesTask', () => {
+
+	beforeEach(() => {
+		mockFs({
+			'output': {}
+		});
+		task = new GeneratePrebuiltClassesTask({
+			name: 'testGeneratePrebuiltClassesTask',
+			logger: noopBunyanLogger
+		});
+		task.outputDirectory = 'output';
+		task.metabase = {};
+		task.classPath = [ 'android.jar' ];
+		task.references = new Map([
+			[ 'file1.js', { usedClasses: [ 'android.app.Activity' ], extendedClasses: [ 'android.app.Activity' ], overrideSets: { 'android.app.Activity': [ [ 'onCreate' ] ] } } ],
+			[ 'file2.js', { usedClasses: [ 'android.view.View$OnClickListener', 'android.app.Activity' ], implementedClasses: [ 'android.view.View$OnClickListener' ], extendedClasses: [ 'android.app.Activity' ], overrideSets: { 'android.app.Activity': [ [ 'onCreate', 'onPause' ], [ 'onCreate' ] ] } } ],
+			[ 'file3.js', { usedClasses: [ 'android.content.Context' ] } ]
+		]);
+		generateSourcesStub = sinon.stub(metabase.prebuild, 'generateSources');
+		generateSourcesStub.returns({
+			'android_app_Activity_Subclass_0123456789abcdef.java': 'class A {}',
+			'android_view_View_2OnClickListener_Impl.java': 'class B {}'
+		});
+		verifySourcesStub = sinon.stub(metabase.prebuild, 'verifySources');
+		verifySourcesStub.callsFake((sourceDir, classPath, outDir, callback) => callback(null, []));
+	});
+
+	afterEach(() => {
+		generateSourcesStub.restore();
+		verifySourcesStub.restore();
+		task = null;
+		mockFs.restore();
+	});
+
+	describe('getAllReferencedClasses', () => {
+		it('should collect unique extended and implemented types', () => {
+			expect(task.getAllReferencedClasses('extendedClasses')).to.be.deep.equal([ 'android.app.Activity' ]);
+			expect(task.getAllReferencedClasses('implementedClasses')).to.be.deep.equal([ 'android.view.View$OnClickListener' ]);
+		});
+	});
+
+	describe('getAllOverrideSets', () => {
+		it('should collect unique sets of overridden methods', () => {
+			expect(task.getAllOverrideSets()).to.be.deep.equal({
+				'android.app.Activity': [ [ 'onCreate' ], [ 'onCreate', 'onPause' ] ]
+			});
+		});
+	});
+
+	describe('runTaskAction', () => {
+		it('should skip if nothing is extended or implemented', () => {
+			task.references = new Map([ [ 'file3.js', { usedClasses: [ 'android.content.Context' ] } ] ]);
+			return expect(task.runTaskAction().then(() => {
+				expect(generateSourcesStub.called).to.be.false;
+				expect(task.generatedClasses).to.be.empty;
+			})).to.eventually.be.fulfilled;
+		});
+
+		it('should generate and verify sources for referenced types', () => {
+			return expect(task.runTaskAction().then(() => {
+				expect(generateSourcesStub.calledWith(task.metabase, [ 'android.app.Activity' ], [ 'android.view.View$OnClickListener' ], {
+					'android.app.Activity': [ [ 'onCreate' ], [ 'onCreate', 'onPause' ] ]
+				})).to.be.true;
+				expect(verifySourcesStub.calledOnce).to.be.true;
+				expect(verifySourcesStub.firstCall.args[0]).to.be.equal(packageDirectory);
+				expect(task.generatedClasses).to.have.members([ 'android_app_Activity_Subclass_0123456789abcdef.java', 'android_view_View_2OnClickListener_Impl.java' ]);
+				expect(fs.existsSync(path.join('output', 'sources.sha'))).to.be.true;
+			})).to.eventually.be.fulfilled;
+		});
+
+		it('should skip verification if sources did not change', () => {
+			return expect(task.runTaskAction().then(() => {
+				return task.runTaskAction();
+			}).then(() => {
+				expect(verifySourcesStub.calledOnce).to.be.true;
+				expect(task.generatedClasses).to.have.lengthOf(2);
+			})).to.eventually.be.fulfilled;
+		});
+
+		it('should not ship any sources if they could not be verified', () => {
+			verifySourcesStub.callsFake((sourceDir, classPath, outDir, callback) => callback(new Error('javac not found')));
+			return expect(task.runTaskAction().then(() => {
+				expect(task.generatedClasses).to.be.empty;
+			})).to.eventually.be.fulfilled;
+		});
+	});
+});
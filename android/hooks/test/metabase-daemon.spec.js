@@ -0,0 +1,158 @@
+const chai = require('chai');
+const expect = chai.expect;
+const fs = require('fs-extra');
+const net = require('net');
+const os = require('os');
+const path = require('path');
+const sinon = require('sinon');
+const metabase = require('../metabase/metabase');
+
+let dest = null;
+let daemons = [];
+let startDaemonStub = null;
+
+/**
+ * Stands in for JavaMetabaseGenerator --daemon: answers requests carrying its token, writing
+ * "metabase" to the requested output file.
+ *
+ * @param {String} version Version of the generator the daemon runs
+ * @param {String} token Token requests have to send
+ * @return {Promise<Object>} The daemon, with its state and the requests it received
+ */
+function startFakeDaemon(version, token) {
+	const daemon = { requests: [] };
+	daemon.server = net.createServer(socket => {
+		let line = '';
+		socket.setEncoding('utf8');
+		socket.on('data', data => {
+			line += data;
+			if (line.indexOf('\n') === -1) {
+				return;
+			}
+			const request = JSON.parse(line);
+			let response;
+			daemon.requests.push(request);
+			if (request.token !== token) {
+				response = { ok: false, error: 'Invalid token' };
+			} else if (request.stop) {
+				response = { ok: true };
+				daemon.server.close();
+			} else {
+				fs.writeFileSync(request.output, 'metabase');
+				response = { ok: true, log: 'Wrote 1 classes' };
+			}
+			socket.end(JSON.stringify(response) + '\n');
+		});
+	});
+	daemons.push(daemon);
+	return new Promise(resolve => {
+		daemon.server.listen(0, '127.0.0.1', () => {
+			daemon.state = { port: daemon.server.address().port, token: token, version: version };
+			resolve(daemon);
+		});
+	});
+}
+
+function writeState(state) {
+	fs.writeFileSync(path.join(dest, 'JavaMetabaseGenerator.daemon.json'), JSON.stringify(state));
+}
+
+function generate(file) {
+	return new Promise((resolve, reject) => {
+		metabase.generateWithDaemon([ 'dummy.jar' ], [], dest, [ '--dedupe-inherited' ], false, file, err => {
+			if (err) {
+				return reject(err);
+			}
+			resolve();
+		});
+	});
+}
+
+describe('metabase generator daemon client', () => {
+
+	beforeEach(() => {
+		dest = fs.mkdtempSync(path.join(os.tmpdir(), 'hyperloop-daemon-'));
+		fs.writeFileSync(path.join(dest, 'JavaMetabaseGenerator.sha'), 'current');
+		startDaemonStub = sinon.stub(metabase, 'startDaemon');
+	});
+
+	afterEach(() => {
+		startDaemonStub.restore();
+		daemons.forEach(daemon => daemon.server.close());
+		daemons = [];
+		fs.removeSync(dest);
+	});
+
+	it('should send requests to the running daemon', () => {
+		const file = path.join(dest, 'metabase.json.gz');
+		return startFakeDaemon('current', 'secret').then(daemon => {
+			writeState(daemon.state);
+			return generate(file).then(() => {
+				expect(startDaemonStub.called).to.be.false;
+				expect(fs.readFileSync(file, 'utf8')).to.be.equal('metabase');
+				expect(daemon.requests).to.have.lengthOf(1);
+				expect(daemon.requests[0].token).to.be.equal('secret');
+				expect(daemon.requests[0].classpath).to.be.deep.equal([ path.resolve('dummy.jar') ]);
+				expect(daemon.requests[0].args).to.be.deep.equal([ '--dedupe-inherited' ]);
+				expect(daemon.requests[0].gzip).to.be.true;
+			});
+		});
+	});
+
+	it('should replace a daemon running an older generator', () => {
+		const file = path.join(dest, 'metabase.json.gz');
+		return Promise.all([ startFakeDaemon('stale', 'old'), startFakeDaemon('current', 'new') ]).then(([ stale, current ]) => {
+			writeState(stale.state);
+			startDaemonStub.callsFake((stateFile, version, cp, callback) => {
+				expect(version).to.be.equal('current');
+				callback(null, current.state);
+			});
+			return generate(file).then(() => {
+				expect(stale.requests).to.be.deep.equal([ { token: 'old', stop: true } ]);
+				expect(startDaemonStub.calledOnce).to.be.true;
+				expect(current.requests).to.have.lengthOf(1);
+				expect(fs.readFileSync(file, 'utf8')).to.be.equal('metabase');
+			});
+		});
+	});
+
+	it('should start a new daemon if the one it knows about is gone', () => {
+		const file = path.join(dest, 'metabase.json.gz');
+		return Promise.all([ startFakeDaemon('current', 'dead'), startFakeDaemon('current', 'new') ]).then(([ dead, current ]) => {
+			writeState(dead.state);
+			dead.server.close();
+			startDaemonStub.yields(null, current.state);
+			return generate(file).then(() => {
+				expect(startDaemonStub.calledOnce).to.be.true;
+				expect(current.requests).to.have.lengthOf(1);
+				expect(fs.readFileSync(file, 'utf8')).to.be.equal('metabase');
+			});
+		});
+	});
+
+	it('should fail without writing the metabase if the daemon rejects the token', () => {
+		const file = path.join(dest, 'metabase.json.gz');
+		return startFakeDaemon('current', 'secret').then(daemon => {
+			writeState({ port: daemon.state.port, token: 'forged', version: 'current' });
+			return generate(file).then(() => {
+				throw new Error('Expected the daemon to reject the request');
+			}, err => {
+				expect(err.message).to.be.equal('Invalid token');
+				expect(startDaemonStub.called).to.be.false;
+				expect(fs.existsSync(file)).to.be.false;
+				expect(fs.existsSync(file + '.tmp')).to.be.false;
+			});
+		});
+	});
+
+	it('should fail if the daemon does not start, so the generator runs instead', () => {
+		const file = path.join(dest, 'metabase.json.gz');
+		startDaemonStub.yields(new Error('Metabase generator daemon exited with code 1'));
+		return generate(file).then(() => {
+			throw new Error('Expected the daemon to fail');
+		}, err => {
+			expect(err.message).to.be.equal('Metabase generator daemon exited with code 1');
+			expect(fs.existsSync(file)).to.be.false;
+		});
+	});
+});
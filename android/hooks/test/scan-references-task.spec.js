@@ -39,6 +39,15 @@ describe('ScanReferencesTask', () => {
 				'non-existing-package.js': 'require("does.not.exists.*");',
 				'nested-type.js': 'require("hyperloop.test.NestedClass");',
 			},
+			'subclassing': {
+				'extend-require.js': 'var Activity = require("android.app.Activity"); var MyActivity = Activity.extend({});',
+				'extend-inline.js': 'var MyActivity = require("android.app.Activity").extend({});',
+				'extend-import.js': 'import { Activity } from "android.app.*"; const MyActivity = Activity.extend({});',
+				'implement-interface.js': 'const OnClickListener = require("android.view.View.OnClickListener"); new OnClickListener({});',
+				'instantiate-class.js': 'const Activity = require("android.app.Activity"); new Activity();',
+				'extend-overrides.js': 'const Activity = require("android.app.Activity"); Activity.extend({ onPause() {}, \'onResume\': null, onCreate: function () {} }); Activity.extend({ onCreate: null });',
+				'extend-variable.js': 'const Activity = require("android.app.Activity"); const overrides = {}; Activity.extend(overrides); Activity.extend({ [name]: null });',
+			},
 			'output': {
 				'references.json': JSON.stringify({
 					[path.join('input', 'activity-type.js')]: testReferenceMetadata
@@ -58,7 +67,8 @@ describe('ScanReferencesTask', () => {
 			classes: {
 				'android.app.Activity': {},
 				'android.content.Context': {},
-				'hyperloop.test$NestedClass': {}
+				'hyperloop.test$NestedClass': {},
+				'android.view.View$OnClickListener': { metatype: 'interface' }
 			}
 		};
 	});
@@ -260,6 +270,22 @@ describe('ScanReferencesTask', () => {
 			expect(task.references).to.be.a('map').that.has.key(pathAndFilename);
 			expect(task.references.get(pathAndFilename)).to.be.deep.equal(testReferenceMetadata);
 		});
+
+		it('should store extended and implemented types', () => {
+			let extendPathAndFilename = path.join('subclassing', 'extend-require.js');
+			let implementPathAndFilename = path.join('subclassing', 'implement-interface.js');
+			expect(task.scanFileForHyperloopRequires(extendPathAndFilename)).to.be.true;
+			expect(task.scanFileForHyperloopRequires(implementPathAndFilename)).to.be.true;
+			expect(task.references.get(extendPathAndFilename)).to.be.deep.equal({
+				usedClasses: [ 'android.app.Activity' ],
+				extendedClasses: [ 'android.app.Activity' ],
+				overrideSets: { 'android.app.Activity': [ [] ] }
+			});
+			expect(task.references.get(implementPathAndFilename)).to.be.deep.equal({
+				usedClasses: [ 'android.view.View$OnClickListener' ],
+				implementedClasses: [ 'android.view.View$OnClickListener' ]
+			});
+		});
 	});
 
 	describe('extractAndReplaceHyperloopRequires', () => {
@@ -336,6 +362,50 @@ describe('ScanReferencesTask', () => {
 		});
 	});
 
+	describe('resolveReferencedType', () => {
+		it('should find types extended through a required binding', () => {
+			let result = task.extractAndReplaceHyperloopRequires(path.join('subclassing', 'extend-require.js'));
+			expect(result.extendedClasses).to.be.deep.equal([ 'android.app.Activity' ]);
+			expect(result.implementedClasses).to.be.an('array').that.is.empty;
+		});
+
+		it('should find types extended inline', () => {
+			let result = task.extractAndReplaceHyperloopRequires(path.join('subclassing', 'extend-inline.js'));
+			expect(result.extendedClasses).to.be.deep.equal([ 'android.app.Activity' ]);
+		});
+
+		it('should find types extended through a package import', () => {
+			let result = task.extractAndReplaceHyperloopRequires(path.join('subclassing', 'extend-import.js'));
+			expect(result.extendedClasses).to.be.deep.equal([ 'android.app.Activity' ]);
+		});
+
+		it('should find implemented interfaces', () => {
+			let result = task.extractAndReplaceHyperloopRequires(path.join('subclassing', 'implement-interface.js'));
+			expect(result.implementedClasses).to.be.deep.equal([ 'android.view.View$OnClickListener' ]);
+			expect(result.extendedClasses).to.be.an('array').that.is.empty;
+		});
+
+		it('should collect the overridden method names of each extend call', () => {
+			let result = task.extractAndReplaceHyperloopRequires(path.join('subclassing', 'extend-overrides.js'));
+			expect(result.extendedClasses).to.be.deep.equal([ 'android.app.Activity' ]);
+			expect(result.overrideSets).to.be.deep.equal({
+				'android.app.Activity': [ [ 'onCreate', 'onPause', 'onResume' ], [ 'onCreate' ] ]
+			});
+		});
+
+		it('should not guess overrides that are only known at runtime', () => {
+			let result = task.extractAndReplaceHyperloopRequires(path.join('subclassing', 'extend-variable.js'));
+			expect(result.extendedClasses).to.be.deep.equal([ 'android.app.Activity' ]);
+			expect(result.overrideSets).to.be.deep.equal({});
+		});
+
+		it('should ignore instantiation of classes', () => {
+			let result = task.extractAndReplaceHyperloopRequires(path.join('subclassing', 'instantiate-class.js'));
+			expect(result.usedClasses).to.include('android.app.Activity');
+			expect(result.implementedClasses).to.be.an('array').that.is.empty;
+		});
+	});
+
 	// TODO Add tests for detectUsedClasses and validateTypeName?
 	// describe('replaceAll', () => {
 	// 	it('should replace all occurrences of a string', () => {
@@ -0,0 +1,155 @@
+const chai = require('chai');
+const expect = chai.expect;
+const fs = require('fs-extra');
+const os = require('os');
+const path = require('path');
+const zlib = require('zlib');
+const shards = require('../metabase/shards');
+
+const testMetabase = {
+	classes: {
+		'android.app.Activity': {
+			superClass: 'java.lang.Object',
+			attributes: [ 'public' ],
+			interfaces: [],
+			metatype: 'class',
+			methods: {
+				onCreate: [ { args: [ { type: 'android.os.Bundle' } ], returnType: 'void', instance: true, attributes: [ 'protected' ] } ]
+			},
+			properties: {}
+		},
+		'android.app.Fragment': {
+			superClass: 'java.lang.Object',
+			attributes: [ 'public' ],
+			interfaces: [],
+			metatype: 'class',
+			methods: {},
+			properties: {}
+		},
+		'android.view.View$OnClickListener': {
+			attributes: [ 'public', 'abstract' ],
+			interfaces: [],
+			metatype: 'interface',
+			methods: {
+				onClick: [ { args: [ { type: 'android.view.View' } ], returnType: 'void', instance: true, attributes: [ 'public', 'abstract' ] } ]
+			},
+			properties: {}
+		},
+		'java.lang.Object': {
+			attributes: [ 'public' ],
+			interfaces: [],
+			metatype: 'class',
+			methods: {},
+			properties: {}
+		}
+	}
+};
+
+let dir = null;
+
+/**
+ * Writes a metabase split up by package the way JavaMetabaseGenerator's ShardWriter does, with
+ * each package's classes spread over files of at most two classes.
+ *
+ * @param {Object} json The metabase
+ * @return {Object} The index
+ */
+function writeShards(json) {
+	const packages = {};
+	Object.keys(json.classes).forEach(className => {
+		const packageName = className.slice(0, className.lastIndexOf('.'));
+		const pkg = packages[packageName] || (packages[packageName] = { classes: [], files: [], parts: [] });
+		pkg.classes.push(className);
+		if (pkg.parts.length === 0 || Object.keys(pkg.parts[pkg.parts.length - 1]).length === 2) {
+			pkg.parts.push({});
+		}
+		pkg.parts[pkg.parts.length - 1][className] = json.classes[className];
+	});
+	Object.keys(packages).forEach(packageName => {
+		const pkg = packages[packageName];
+		pkg.parts.forEach((part, i) => {
+			const file = packageName + '.' + i + '.json.gz';
+			fs.writeFileSync(path.join(dir, file), zlib.gzipSync(JSON.stringify({ classes: part })));
+			pkg.files.push(file);
+		});
+		delete pkg.parts;
+	});
+	return { version: 1, packages: packages };
+}
+
+describe('sharded metabase', () => {
+	let reader = null;
+	let metabase = null;
+
+	beforeEach(() => {
+		dir = fs.mkdtempSync(path.join(os.tmpdir(), 'hyperloop-shards-'));
+		reader = new shards.ShardedMetabase(writeShards(testMetabase), dir);
+		metabase = reader.toMetabase();
+	});
+
+	afterEach(() => {
+		fs.removeSync(dir);
+		reader = null;
+		metabase = null;
+	});
+
+	it('should reject indexes it cannot read', () => {
+		expect(() => shards.readMetabase({ classes: {} }, dir)).to.throw('Not a sharded metabase index');
+		expect(() => shards.readMetabase({ version: 2, packages: {} }, dir)).to.throw('Unsupported sharded metabase version');
+	});
+
+	it('should look up classes, reading only their package', () => {
+		expect(metabase.classes['android.app.Fragment']).to.be.deep.equal(testMetabase.classes['android.app.Fragment']);
+		expect(metabase.classes['android.app.Service']).to.be.undefined;
+		expect(Object.keys(reader.loaded)).to.be.deep.equal([ 'android.app' ]);
+		// read once
+		expect(metabase.classes['android.app.Activity']).to.be.equal(metabase.classes['android.app.Activity']);
+	});
+
+	it('should tell whether a class is in the metabase without reading its package', () => {
+		expect('android.view.View$OnClickListener' in metabase.classes).to.be.true;
+		expect('android.view.View' in metabase.classes).to.be.false;
+		expect(Object.prototype.hasOwnProperty.call(metabase.classes, 'java.lang.Object')).to.be.true;
+		expect(Object.keys(reader.loaded)).to.be.empty;
+	});
+
+	it('should enumerate classes without reading any package', () => {
+		const names = [];
+		for (const name in metabase.classes) {
+			names.push(name);
+		}
+		expect(names).to.have.members(Object.keys(testMetabase.classes));
+		expect(Object.keys(metabase.classes)).to.have.members(Object.keys(testMetabase.classes));
+		expect(Object.keys(reader.loaded)).to.be.empty;
+	});
+
+	it('should read the same metabase as the JSON one', () => {
+		expect(JSON.parse(JSON.stringify(metabase))).to.be.deep.equal(testMetabase);
+	});
+
+	it('should add methods inherited from interfaces in other packages', () => {
+		const deduped = {
+			classes: {
+				'a.Listener': {
+					attributes: [ 'public', 'abstract' ],
+					metatype: 'interface',
+					interfaces: [ 'b.Base' ],
+					flattens: [ 'b.Base' ],
+					methods: { onA: [ { args: [], returnType: 'void', instance: true, attributes: [ 'public', 'abstract' ] } ] },
+					properties: {}
+				},
+				'b.Base': {
+					attributes: [ 'public', 'abstract' ],
+					metatype: 'interface',
+					interfaces: [],
+					methods: { onB: [ { args: [], returnType: 'void', instance: true, attributes: [ 'public', 'abstract' ] } ] },
+					properties: {}
+				}
+			}
+		};
+		fs.emptyDirSync(dir);
+		const classes = shards.readMetabase(writeShards(deduped), dir).classes;
+		expect(Object.keys(classes['a.Listener'].methods)).to.have.members([ 'onA', 'onB' ]);
+		expect(Object.keys(classes['b.Base'].methods)).to.be.deep.equal([ 'onB' ]);
+	});
+});
@@ -0,0 +1,121 @@
+/**
+ * Appcelerator Titanium Mobile
+ * Copyright (c) 2015 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the Apache Public License
+ * Please see the LICENSE included with this distribution for details.
+ */
+
+package hyperloop;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.appcelerator.kroll.KrollDict;
+import org.appcelerator.kroll.KrollFunction;
+import org.appcelerator.kroll.KrollObject;
+import org.appcelerator.kroll.common.Log;
+
+/**
+ * Runs Hyperloop.extendAsync()/implementAsync() class generation on a
+ * background thread and reports the result to JS callbacks. Requests for a
+ * class that's already being generated don't queue a second generation, the
+ * callback just joins the one in flight.
+ */
+class AsyncClassGenerator {
+
+    private static final String TAG = "AsyncClassGenerator";
+
+    /**
+     * Generation is mostly disk and dex work, one thread keeps it from
+     * competing with the UI for more than a core.
+     */
+    private final ExecutorService fExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "hyperloop-class-generator");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /**
+     * Callbacks waiting on each request in flight, keyed by request.
+     */
+    private final Map<String, List<Callback>> fPending = new HashMap<String, List<Callback>>();
+
+    /**
+     * Generate a class in the background, unless the same request is already
+     * in flight. The callback receives a dictionary with <code>success</code>,
+     * and either <code>proxy</code> or <code>error</code>.
+     *
+     * @param key Identifies the request, i.e. "extend:android.view.View"
+     * @param generator Generates the class proxy; returns null (having
+     *            logged why) on failure
+     * @param callback JS callback, may be null
+     * @param thisObject Object the callback gets called on
+     */
+    void submit(final String key, final Callable<BaseProxy> generator, KrollFunction callback,
+            KrollObject thisObject) {
+        synchronized (fPending) {
+            List<Callback> callbacks = fPending.get(key);
+            if (callbacks != null) {
+                if (callback != null) {
+                    callbacks.add(new Callback(callback, thisObject));
+                }
+                return;
+            }
+            callbacks = new ArrayList<Callback>();
+            if (callback != null) {
+                callbacks.add(new Callback(callback, thisObject));
+            }
+            fPending.put(key, callbacks);
+        }
+        fExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                BaseProxy result = null;
+                String error = null;
+                try {
+                    result = generator.call();
+                } catch (Throwable t) {
+                    Log.e(TAG, "Failed to generate class for " + key, t);
+                    error = t.getMessage();
+                }
+                if (result == null && error == null) {
+                    error = "Unable to generate class for " + key;
+                }
+                List<Callback> callbacks;
+                synchronized (fPending) {
+                    callbacks = fPending.remove(key);
+                }
+                KrollDict event = new KrollDict();
+                event.put("success", result != null);
+                if (result != null) {
+                    event.put("proxy", result);
+                } else {
+                    event.put("error", error);
+                }
+                for (Callback callback : callbacks) {
+                    callback.fFunction.callAsync(callback.fThisObject, event);
+                }
+            }
+        });
+    }
+
+    private static final class Callback {
+        private final KrollFunction fFunction;
+        private final KrollObject fThisObject;
+
+        Callback(KrollFunction function, KrollObject thisObject) {
+            this.fFunction = function;
+            this.fThisObject = thisObject;
+        }
+    }
+}
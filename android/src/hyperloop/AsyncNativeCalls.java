@@ -0,0 +1,138 @@
+/**
+ * Appcelerator Titanium Mobile
+ * Copyright (c) 2015 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the Apache Public License
+ * Please see the LICENSE included with this distribution for details.
+ */
+
+package hyperloop;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.appcelerator.kroll.KrollDict;
+import org.appcelerator.kroll.KrollFunction;
+import org.appcelerator.kroll.common.Log;
+
+/**
+ * Runs Java methods called through callNativeFunctionAsync() on a bounded pool
+ * of background threads, so disk, decoding or database work doesn't hold up the
+ * JS thread. The method gets resolved and its arguments converted on the JS
+ * thread before it's submitted (just like a synchronous call); only the
+ * invocation itself runs in the pool. The result (wrapped for JS on the JS
+ * thread) or the exception is passed to the callback as a dictionary holding
+ * <code>success</code>, and <code>result</code> or <code>error</code>.
+ * <p>
+ * Once {@link #fgMaxThreads} calls are running and {@link #fgQueueSize} more
+ * are waiting, further calls run on the calling thread, as they would have
+ * without async.
+ */
+final class AsyncNativeCalls {
+
+    private static final String TAG = "AsyncNativeCalls";
+
+    static final int DEFAULT_MAX_THREADS = 4;
+    static final int DEFAULT_QUEUE_SIZE = 128;
+
+    private static int fgMaxThreads = DEFAULT_MAX_THREADS;
+    private static int fgQueueSize = DEFAULT_QUEUE_SIZE;
+    private static ThreadPoolExecutor fgExecutor;
+
+    private AsyncNativeCalls() {
+    }
+
+    /**
+     * Change the size of the pool. Calls already submitted finish on the
+     * previous pool.
+     *
+     * @param maxThreads
+     * @param queueSize
+     */
+    static synchronized void configure(int maxThreads, int queueSize) {
+        fgMaxThreads = Math.max(1, maxThreads);
+        fgQueueSize = Math.max(1, queueSize);
+        if (fgExecutor != null) {
+            fgExecutor.shutdown();
+            fgExecutor = null;
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (fgExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            fgExecutor = new ThreadPoolExecutor(fgMaxThreads, fgMaxThreads, 30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(fgQueueSize), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "hyperloop-async-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+            fgExecutor.allowCoreThreadTimeOut(true);
+        }
+        return fgExecutor;
+    }
+
+    /**
+     * Invoke the method in the background, then report to the callback on the
+     * JS thread.
+     *
+     * @param proxy Proxy the call was made on
+     * @param m The resolved method
+     * @param receiver
+     * @param javaArgs Arguments, already converted to the parameter types
+     * @param callback May be null
+     */
+    static void submit(final BaseProxy proxy, final Method m, final Object receiver, final Object[] javaArgs,
+            final KrollFunction callback) {
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Object result = null;
+                Throwable error = null;
+                try {
+                    result = proxy.invokeConverted(m, receiver, javaArgs);
+                } catch (InvocationTargetException e) {
+                    error = e.getCause();
+                } catch (Throwable t) {
+                    error = t;
+                }
+                if (error != null) {
+                    Log.e(TAG, "Error thrown during async invocation of method: " + m.toString(), error);
+                }
+                deliver(proxy, m.getReturnType(), result, error, callback);
+            }
+        });
+    }
+
+    /**
+     * Report the outcome of a call to its callback, on the JS thread.
+     */
+    static void deliver(final BaseProxy proxy, final Class<?> returnType, final Object result,
+            final Throwable error, final KrollFunction callback) {
+        if (callback == null) {
+            return;
+        }
+        RuntimeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                KrollDict event = new KrollDict();
+                event.put("success", error == null);
+                if (error == null) {
+                    // Force reported class to be the return type of the method!
+                    event.put("result", HyperloopUtil.wrap(returnType, result));
+                } else {
+                    String message = error.getMessage();
+                    event.put("error", message != null ? message : error.toString());
+                }
+                callback.call(proxy.getKrollObject(), new Object[] { event });
+            }
+        });
+    }
+}
@@ -14,6 +14,7 @@ import java.util.Arrays;
 import java.util.Map;
 
 import org.appcelerator.kroll.KrollDict;
+import org.appcelerator.kroll.KrollFunction;
 import org.appcelerator.kroll.annotations.Kroll;
 import org.appcelerator.kroll.common.Log;
 import org.appcelerator.titanium.TiApplication;
@@ -96,10 +97,30 @@ public abstract class BaseProxy extends TiViewProxy {
         return dict;
     }
 
-    @Kroll.method
-    public Object callNativeFunction(Object[] args) throws Exception {
-        KrollDict dict = argsToDict(args);
+    /**
+     * A resolved method call, ready to be invoked.
+     */
+    static final class NativeCall {
+        final BaseProxy proxy;
+        final Method method;
+        final Object receiver;
+        final Object[] convertedArgs;
 
+        NativeCall(BaseProxy proxy, Method method, Object receiver, Object[] convertedArgs) {
+            this.proxy = proxy;
+            this.method = method;
+            this.receiver = receiver;
+            this.convertedArgs = convertedArgs;
+        }
+    }
+
+    /**
+     * Resolve the method a call dictionary ({ func, args, instanceMethod })
+     * refers to, and unwrap its arguments.
+     *
+     * @return null (having logged why) if the method can't be resolved
+     */
+    NativeCall prepareCall(KrollDict dict) {
         String methodname = dict.getString("func");
         if (methodname == null) {
             Log.e(TAG, "'func' cannot be null");
@@ -122,17 +143,32 @@ public abstract class BaseProxy extends TiViewProxy {
                     + ", args: " + Arrays.toString(functionArguments));
             return null;
         }
-        Object receiver = (isInstanceMethod ? getReceiver() : null);
+        return new NativeCall(this, m, isInstanceMethod ? getReceiver() : null, convertedArgs);
+    }
+
+    @Kroll.method
+    public Object callNativeFunction(Object[] args) throws Exception {
+        KrollDict dict = argsToDict(args);
+        if (dict.optBoolean("async", false)) {
+            callNativeFunctionAsync(args);
+            return null;
+        }
+
+        NativeCall call = prepareCall(dict);
+        if (call == null) {
+            return null;
+        }
+        Method m = call.method;
         Object result = null;
         try {
-            result = invokeMethod(m, receiver, convertedArgs);
+            result = invokeMethod(m, call.receiver, call.convertedArgs);
         } catch(InvocationTargetException e) {
             if (e.getCause() instanceof Exception) {
                 throw (Exception)e.getCause();
             } else {
                 Log.e(TAG, "Error thrown during invocation of method: " + m.toString()
                     + ", args: "
-                    + Arrays.toString(convertedArgs),
+                    + Arrays.toString(call.convertedArgs),
                     e.getCause());
             }
         }
@@ -144,22 +180,70 @@ public abstract class BaseProxy extends TiViewProxy {
         return HyperloopUtil.wrap(returnType, result);
     }
 
+    /**
+     * Like {@link #callNativeFunction(Object[])}, but the method runs on a
+     * background thread so long running calls (disk I/O, decoding, queries)
+     * don't block JS. The method is resolved and its arguments converted right
+     * away; the callback (the second argument, or <code>callback</code> in the
+     * call dictionary) later receives a dictionary holding
+     * <code>success</code>, and the <code>result</code> or an
+     * <code>error</code> message.
+     *
+     * @param args
+     */
+    @Kroll.method
+    public void callNativeFunctionAsync(Object[] args) {
+        KrollDict dict = argsToDict(args);
+        KrollFunction callback = null;
+        if (args.length > 1 && args[1] instanceof KrollFunction) {
+            callback = (KrollFunction) args[1];
+        } else if (dict.get("callback") instanceof KrollFunction) {
+            callback = (KrollFunction) dict.get("callback");
+        }
+
+        NativeCall call = prepareCall(dict);
+        if (call == null) {
+            AsyncNativeCalls.deliver(this, Void.class, null,
+                    new NoSuchMethodException("Unable to resolve method '" + dict.getString("func") + "' of "
+                            + getApiName()),
+                    callback);
+            return;
+        }
+        Method m = call.method;
+        Object[] javaArgs;
+        try {
+            javaArgs = HyperloopUtil.convert(call.convertedArgs, m.getParameterTypes(), m.isVarArgs());
+        } catch (RuntimeException e) {
+            AsyncNativeCalls.deliver(this, Void.class, null, e, callback);
+            return;
+        }
+        AsyncNativeCalls.submit(this, m, call.receiver, javaArgs, callback);
+    }
+
     private Method findMethod(String methodName, Object[] convertedArgs,
             boolean instanceMethod) {
         return HyperloopUtil.resolveMethod(clazz, methodName, convertedArgs, instanceMethod);
     }
 
     protected Object invokeMethod(Method m, Object receiver, Object[] convertedArgs) throws InvocationTargetException {
+        return invokeConverted(m, receiver,
+                HyperloopUtil.convert(convertedArgs, m.getParameterTypes(), m.isVarArgs()));
+    }
+
+    /**
+     * Invoke the method with arguments already converted to its parameter
+     * types. May be called off the JS thread (see {@link AsyncNativeCalls}).
+     */
+    protected Object invokeConverted(Method m, Object receiver, Object[] javaArgs) throws InvocationTargetException {
         m.setAccessible(true); // should offer perf boost since doesn't have to
                                // check security
         try {
-            return m.invoke(receiver,
-                    HyperloopUtil.convert(convertedArgs, m.getParameterTypes(), m.isVarArgs()));
+            return m.invoke(receiver, javaArgs);
         } catch (IllegalAccessException e) {
             Log.e(TAG, "Unable to access method: " + m.toString(), e);
         } catch (IllegalArgumentException e) {
             Log.e(TAG, "Bad argument for method: " + m.toString() + ", args: "
-                    + Arrays.toString(convertedArgs), e);
+                    + Arrays.toString(javaArgs), e);
         }
 
         return null;
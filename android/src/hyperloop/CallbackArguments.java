@@ -0,0 +1,128 @@
+/**
+ * Appcelerator Titanium Mobile
+ * Copyright (c) 2015 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the Apache Public License
+ * Please see the LICENSE included with this distribution for details.
+ */
+
+package hyperloop;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reusable argument storage for the calls from Java into one JS override of one
+ * instance, so a callback that fires on every frame or touch (onDraw,
+ * onTouchEvent) doesn't allocate an argument array and fresh proxies each
+ * time.
+ * <p>
+ * Arguments of a transient type (one the framework recycles once the callback
+ * returns, like MotionEvent) are handed to JS in an InstanceProxy owned by the
+ * override, which gets rebound to the new object on every call. That proxy is
+ * only valid until the override returns: afterwards it's detached, and the
+ * next call rebinds it to whatever object that call receives. JS that needs to
+ * keep such an argument has to copy it (i.e. MotionEvent.obtain(event)).
+ * <p>
+ * Nested or concurrent calls of the same override fall back to converting the
+ * arguments the regular way.
+ */
+final class CallbackArguments {
+
+    private static final Object[] EMPTY = new Object[0];
+
+    /**
+     * Names of the classes whose instances are only valid during a callback.
+     */
+    private static final Set<String> fgTransientTypes = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    static {
+        fgTransientTypes.add("android.view.MotionEvent");
+        // SensorManager reuses the event object for every reading
+        fgTransientTypes.add("android.hardware.SensorEvent");
+    }
+
+    private final OverrideDispatchTable.MethodPlan fPlan;
+    private final Object[] fArgs;
+    private final InstanceProxy[] fProxies;
+    private final AtomicBoolean fInUse = new AtomicBoolean();
+
+    CallbackArguments(OverrideDispatchTable.MethodPlan plan) {
+        fPlan = plan;
+        fArgs = new Object[plan.params.length];
+        fProxies = new InstanceProxy[plan.params.length];
+    }
+
+    /**
+     * Treat instances of the given class as only valid for the duration of the
+     * callback they're passed to.
+     *
+     * @param className
+     */
+    static void addTransientType(String className) {
+        fgTransientTypes.add(className);
+    }
+
+    static boolean isTransientType(Class<?> type) {
+        return fgTransientTypes.contains(type.getName());
+    }
+
+    /**
+     * Convert the arguments of a call for JS. Must be paired with
+     * {@link #release(Object[])} once the JS function returns.
+     *
+     * @param args
+     * @return
+     */
+    Object[] acquire(Object[] args) {
+        final int argCount = (args == null) ? 0 : args.length;
+        if (argCount == 0) {
+            // Never hand a null argument array to the native V8Function
+            return EMPTY;
+        }
+        if (argCount != fArgs.length || !fInUse.compareAndSet(false, true)) {
+            return HyperloopUtil.wrapArguments(fPlan.params, fPlan.wrapPlan, args);
+        }
+        for (int i = 0; i < argCount; i++) {
+            Object arg = args[i];
+            byte plan = fPlan.wrapPlan[i];
+            if (plan != HyperloopUtil.WRAP_DYNAMIC || arg == null || !isTransientType(arg.getClass())) {
+                fArgs[i] = HyperloopUtil.wrapArgument(fPlan.params[i], plan, arg);
+                continue;
+            }
+            HyperloopStats.recordToJS(arg);
+            InstanceProxy proxy = fProxies[i];
+            if (proxy != null && proxy.clazz == arg.getClass()) {
+                proxy.rebind(arg);
+                HyperloopStats.callbackProxiesReused.increment();
+            } else {
+                proxy = new InstanceProxy(arg.getClass(), fPlan.params[i].getName(), arg);
+                fProxies[i] = proxy;
+            }
+            fArgs[i] = proxy;
+        }
+        return fArgs;
+    }
+
+    /**
+     * Done with the arguments returned by {@link #acquire(Object[])}: detach
+     * the recycled proxies and drop our references to the arguments.
+     *
+     * @param wrapped
+     */
+    void release(Object[] wrapped) {
+        if (wrapped != fArgs) {
+            return;
+        }
+        for (InstanceProxy proxy : fProxies) {
+            if (proxy != null) {
+                proxy.rebind(null);
+            }
+        }
+        Arrays.fill(fArgs, null);
+        fInUse.set(false);
+    }
+}
@@ -0,0 +1,364 @@
+/**
+ * Appcelerator Titanium Mobile
+ * Copyright (c) 2015 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the Apache Public License
+ * Please see the LICENSE included with this distribution for details.
+ */
+
+package hyperloop;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.appcelerator.kroll.KrollDict;
+import org.appcelerator.kroll.KrollFunction;
+import org.appcelerator.kroll.KrollObject;
+import org.appcelerator.kroll.common.Log;
+
+/**
+ * Deferred delivery of the calls to a void JS override, for listeners that
+ * fire far more often than JS needs to hear about it (sensors, scrolling,
+ * location), or that get called on threads which shouldn't sit waiting for the
+ * JS thread (binder, network or executor threads). Instead of a synchronous
+ * call into JS per event, the arguments are captured on the calling thread and
+ * handed to the JS thread asynchronously, either:
+ * <ul>
+ * <li>{@link #COALESCE}: only the latest arguments, at most once per
+ * interval</li>
+ * <li>{@link #BATCH}: every call, collected into one JS call per interval (or
+ * whenever {@link Policy#maxBatch} calls are pending). The override receives a
+ * single object holding the <code>count</code> of calls and <code>args</code>,
+ * one column per parameter: primitive parameters are packed into primitive
+ * arrays, everything else into an array of values.</li>
+ * <li>{@link #ASYNC}: every call, each as its own JS call, without blocking the
+ * calling thread until JS is done with it. At most {@link Policy#queueSize}
+ * calls may be waiting for the JS thread; beyond that, callers on other
+ * threads block until there's room again (callers on the JS thread itself
+ * can't wait for it, so their calls are queued regardless).</li>
+ * </ul>
+ * Since the arguments outlive the call, primitive arrays are copied, and
+ * objects of a transient type (see {@link CallbackArguments}) are captured as a
+ * dictionary of their public fields (for a SensorEvent: values, accuracy,
+ * timestamp and sensor). Other objects are passed as proxies.
+ */
+final class CallbackDelivery {
+
+    private static final String TAG = "CallbackDelivery";
+
+    static final String DIRECT = "direct";
+    static final String COALESCE = "coalesce";
+    static final String BATCH = "batch";
+    static final String ASYNC = "async";
+
+    static final long DEFAULT_COALESCE_INTERVAL = 16;
+    static final long DEFAULT_BATCH_INTERVAL = 100;
+    static final int DEFAULT_MAX_BATCH = 256;
+    static final int DEFAULT_QUEUE_SIZE = 64;
+
+    private static ScheduledExecutorService fgTimer;
+
+    /**
+     * Public instance fields of the transient types we've captured, by class.
+     */
+    private static final Map<Class<?>, Field[]> fgFields = new ConcurrentHashMap<Class<?>, Field[]>();
+
+    /**
+     * How calls to an override get delivered, as given by JS:
+     * <code>{ handler: function, delivery: 'coalesce'|'batch'|'async'|'direct',
+     * interval: ms, maxBatch: n, queueSize: n }</code>
+     */
+    static final class Policy {
+        final String mode;
+        final long interval;
+        final int maxBatch;
+        final int queueSize;
+
+        private Policy(String mode, long interval, int maxBatch, int queueSize) {
+            this.mode = mode;
+            this.interval = interval;
+            this.maxBatch = maxBatch;
+            this.queueSize = queueSize;
+        }
+
+        /**
+         * @param spec
+         * @return The policy, null for direct delivery
+         */
+        static Policy parse(Map<?, ?> spec) {
+            Object mode = spec.get("delivery");
+            if (mode == null || DIRECT.equals(mode)) {
+                return null;
+            }
+            if (COALESCE.equals(mode)) {
+                return new Policy(COALESCE, toLong(spec.get("interval"), DEFAULT_COALESCE_INTERVAL), 0, 0);
+            }
+            if (BATCH.equals(mode)) {
+                return new Policy(BATCH, toLong(spec.get("interval"), DEFAULT_BATCH_INTERVAL),
+                        (int) Math.max(1, toLong(spec.get("maxBatch"), DEFAULT_MAX_BATCH)), 0);
+            }
+            if (ASYNC.equals(mode)) {
+                return new Policy(ASYNC, 0, 0, (int) Math.max(1, toLong(spec.get("queueSize"), DEFAULT_QUEUE_SIZE)));
+            }
+            Log.w(TAG, "Unknown delivery '" + mode + "', falling back to direct delivery");
+            return null;
+        }
+
+        private static long toLong(Object value, long defaultValue) {
+            if (value instanceof Number) {
+                return Math.max(0, ((Number) value).longValue());
+            }
+            return defaultValue;
+        }
+    }
+
+    private final Policy fPolicy;
+    private final OverrideDispatchTable.MethodPlan fPlan;
+    private final KrollFunction fFunction;
+    private final HyperloopStats.Counter fCallbacks;
+
+    /**
+     * Free slots in the queue of async calls.
+     */
+    private final Semaphore fQueueSlots;
+
+    // Guarded by this
+    private KrollObject fThisObject;
+    private Object[] fLatest;
+    private List<Object[]> fPending;
+    private boolean fScheduled;
+    private long fLastDelivery;
+
+    private final Runnable fFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    CallbackDelivery(Policy policy, OverrideDispatchTable.MethodPlan plan, KrollFunction function,
+            HyperloopStats.Counter callbacks) {
+        fPolicy = policy;
+        fPlan = plan;
+        fFunction = function;
+        fCallbacks = callbacks;
+        fQueueSlots = ASYNC.equals(policy.mode) ? new Semaphore(policy.queueSize) : null;
+    }
+
+    /**
+     * Capture the arguments of a call and schedule their delivery.
+     *
+     * @param thisObject
+     * @param args
+     */
+    void enqueue(KrollObject thisObject, Object[] args) {
+        Object[] captured = capture(args);
+        if (fQueueSlots != null) {
+            post(thisObject, captured);
+            return;
+        }
+        boolean flushNow = false;
+        synchronized (this) {
+            fThisObject = thisObject;
+            if (BATCH.equals(fPolicy.mode)) {
+                if (fPending == null) {
+                    fPending = new ArrayList<Object[]>();
+                }
+                fPending.add(captured);
+                flushNow = fPending.size() >= fPolicy.maxBatch;
+                HyperloopStats.callbacksBatched.increment();
+            } else {
+                if (fLatest != null) {
+                    HyperloopStats.callbacksCoalesced.increment();
+                }
+                fLatest = captured;
+            }
+            if (!flushNow && !fScheduled) {
+                fScheduled = true;
+                // A batch collects for a full interval, the latest value goes
+                // out as soon as the last delivery is an interval ago
+                long delay = BATCH.equals(fPolicy.mode) ? fPolicy.interval
+                        : Math.max(0, fLastDelivery + fPolicy.interval - System.currentTimeMillis());
+                getTimer().schedule(fFlush, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        KrollObject thisObject;
+        Object[] args;
+        synchronized (this) {
+            fScheduled = false;
+            thisObject = fThisObject;
+            if (BATCH.equals(fPolicy.mode)) {
+                if (fPending == null || fPending.isEmpty()) {
+                    return;
+                }
+                args = new Object[] { pack(fPending) };
+                fPending = null;
+            } else {
+                if (fLatest == null) {
+                    return;
+                }
+                args = fLatest;
+                fLatest = null;
+            }
+            fLastDelivery = System.currentTimeMillis();
+        }
+        HyperloopStats.recordCallback(fCallbacks);
+        fFunction.callAsync(thisObject, args);
+    }
+
+    private void post(final KrollObject thisObject, final Object[] args) {
+        final boolean slotTaken;
+        if (fQueueSlots.tryAcquire()) {
+            slotTaken = true;
+        } else if (RuntimeExecutor.isRuntimeThread()) {
+            // Blocking here would wait on ourselves
+            slotTaken = false;
+        } else {
+            HyperloopStats.callbacksBlocked.increment();
+            fQueueSlots.acquireUninterruptibly();
+            slotTaken = true;
+        }
+        RuntimeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    HyperloopStats.recordCallback(fCallbacks);
+                    fFunction.call(thisObject, args);
+                } catch (Throwable t) {
+                    Log.e(TAG, "Async call of override '" + fPlan.name + "' failed", t);
+                } finally {
+                    if (slotTaken) {
+                        fQueueSlots.release();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Convert the arguments for JS while they're still valid.
+     */
+    private Object[] capture(Object[] args) {
+        final int argCount = (args == null) ? 0 : args.length;
+        Object[] captured = new Object[argCount];
+        for (int i = 0; i < argCount; i++) {
+            Object arg = args[i];
+            if (arg == null) {
+                continue;
+            }
+            if (i >= fPlan.wrapPlan.length || fPlan.wrapPlan[i] == HyperloopUtil.WRAP_DYNAMIC) {
+                captured[i] = captureValue(i < fPlan.params.length ? fPlan.params[i] : arg.getClass(), arg);
+            } else {
+                captured[i] = HyperloopUtil.wrapArgument(fPlan.params[i], fPlan.wrapPlan[i], arg);
+            }
+        }
+        return captured;
+    }
+
+    static Object captureValue(Class<?> type, Object value) {
+        if (value == null) {
+            return null;
+        }
+        Class<?> valueClass = value.getClass();
+        if (valueClass.isArray()) {
+            // the caller may reuse its array
+            int length = Array.getLength(value);
+            Object copy = Array.newInstance(valueClass.getComponentType(), length);
+            System.arraycopy(value, 0, copy, 0, length);
+            return HyperloopUtil.wrap(type, copy);
+        }
+        if (!CallbackArguments.isTransientType(valueClass)) {
+            return HyperloopUtil.wrap(type, value);
+        }
+        KrollDict fields = new KrollDict();
+        for (Field field : fieldsOf(valueClass)) {
+            try {
+                Object fieldValue = field.get(value);
+                fields.put(field.getName(), fieldValue == null ? null
+                        : (fieldValue.getClass().isArray() ? captureValue(field.getType(), fieldValue)
+                                : HyperloopUtil.wrap(field.getType(), fieldValue)));
+            } catch (IllegalAccessException e) {
+                // skip it
+            }
+        }
+        return fields;
+    }
+
+    private static Field[] fieldsOf(Class<?> c) {
+        Field[] fields = fgFields.get(c);
+        if (fields == null) {
+            List<Field> instanceFields = new ArrayList<Field>();
+            for (Field field : c.getFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    instanceFields.add(field);
+                }
+            }
+            fields = instanceFields.toArray(new Field[instanceFields.size()]);
+            fgFields.put(c, fields);
+        }
+        return fields;
+    }
+
+    /**
+     * Pack a batch of captured calls into columns, one per parameter.
+     */
+    private KrollDict pack(List<Object[]> calls) {
+        final int count = calls.size();
+        final int paramCount = fPlan.params.length;
+        Object[] columns = new Object[paramCount];
+        for (int p = 0; p < paramCount; p++) {
+            Class<?> param = fPlan.params[p];
+            Object column;
+            if (param == int.class || param == long.class || param == float.class || param == double.class
+                    || param == short.class || param == boolean.class) {
+                column = Array.newInstance(param, count);
+            } else if (param == byte.class) {
+                // the bridge can't handle byte[]
+                column = new short[count];
+            } else {
+                column = new Object[count];
+            }
+            for (int c = 0; c < count; c++) {
+                Object[] call = calls.get(c);
+                Object value = (p < call.length) ? call[p] : null;
+                if (value != null || !column.getClass().getComponentType().isPrimitive()) {
+                    Array.set(column, c, value);
+                }
+            }
+            columns[p] = column;
+        }
+        KrollDict batch = new KrollDict();
+        batch.put("count", count);
+        batch.put("args", columns);
+        return batch;
+    }
+
+    private static synchronized ScheduledExecutorService getTimer() {
+        if (fgTimer == null) {
+            fgTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "hyperloop-callback-delivery");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return fgTimer;
+    }
+}
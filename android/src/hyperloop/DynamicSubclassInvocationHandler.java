@@ -26,13 +26,14 @@ class DynamicSubclassInvocationHandler extends HyperloopInvocationHandler {
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        if (callSuper || !this.hp.getOverrides().containsKey(method.getName())) {
+        OverrideDispatchTable table = this.hp.getDispatchTable();
+        OverrideDispatchTable.Entry entry = (table == null) ? null : table.get(method);
+        if (consumeSuperCall(proxy, method) || entry == null || !entry.overridden) {
             // TODO What if superclass has marked the method as abstract?
-            callSuper = false; // ok, reset it at the very first chance...
             return HyperloopUtil
                     .unwrap(ProxyBuilder.callSuper(this.hp.getWrappedObject(), method, args));
         }
-        return super.invoke(proxy, method, args);
+        return dispatch(proxy, entry, args);
     }
 
 }
@@ -0,0 +1,452 @@
+/**
+ * Appcelerator Titanium Mobile
+ * Copyright (c) 2015 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the Apache Public License
+ * Please see the LICENSE included with this distribution for details.
+ */
+
+package hyperloop;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.appcelerator.kroll.common.Log;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+
+import com.android.dx.stock.ProxyBuilder;
+
+import dalvik.system.DexClassLoader;
+
+/**
+ * Process-wide cache of the subclasses dexmaker generates for
+ * Hyperloop.extend(). A generated class only intercepts the methods JS
+ * overrides (plus abstract ones), so classes are keyed by base class name and
+ * the set of overridden method names. They're kept in memory, and the dex
+ * files backing them are kept on disk (one directory per key) under a
+ * directory versioned by app version and OS API level, so a relaunch can load
+ * the previous launch's class straight from its jar instead of regenerating
+ * it. An index file maps each key to the name of its generated class; the
+ * on-disk cache is trimmed back to {@link #MAX_DISK_BYTES} by evicting the
+ * least recently used classes.
+ */
+class GeneratedClassCache {
+
+    private static final String TAG = "GeneratedClassCache";
+
+    /**
+     * Bump when the layout of the cache or the way we generate classes changes.
+     */
+    private static final int CACHE_VERSION = 3;
+
+    private static final long MAX_DISK_BYTES = 8 * 1024 * 1024;
+
+    private static final String INDEX_FILE = "index.properties";
+
+    private final Map<String, Class<?>> fClasses = new ConcurrentHashMap<String, Class<?>>();
+    private final File fDir;
+    private Properties fIndex;
+
+    GeneratedClassCache(Context context) {
+        this(new File(context.getDir("dx", Context.MODE_PRIVATE), versionKey(context)));
+        purgeStaleVersions(fDir.getParentFile(), fDir);
+    }
+
+    GeneratedClassCache(File dir) {
+        fDir = dir;
+    }
+
+    /**
+     * Get the generated subclass of the given class, generating it only if
+     * neither this process nor a previous launch of this app version has done
+     * so already.
+     *
+     * @param base
+     * @param overrides Names of the methods JS overrides, null to intercept
+     *            every method that can be overridden
+     * @return
+     * @throws IOException
+     */
+    Class<?> get(Class<?> base, Collection<String> overrides) throws IOException {
+        Set<String> names = (overrides == null) ? null : new TreeSet<String>(overrides);
+        String key = cacheKey(base, names);
+        Class<?> generated = fClasses.get(key);
+        if (generated != null) {
+            HyperloopStats.generatedClassMemoryHits.increment();
+            return generated;
+        }
+        synchronized (this) {
+            // may have been generated while we waited on the lock
+            generated = fClasses.get(key);
+            if (generated != null) {
+                HyperloopStats.generatedClassMemoryHits.increment();
+                return generated;
+            }
+
+            loadIndex();
+            File classDir = new File(fDir, key);
+            String generatedName = fIndex.getProperty(key);
+            if (generatedName != null) {
+                generated = loadFromDisk(classDir, generatedName);
+            }
+            if (generated != null) {
+                HyperloopStats.generatedClassDiskHits.increment();
+            } else {
+                HyperloopStats.generatedClassMisses.increment();
+                Method[] methods = (names == null) ? null : methodsToIntercept(base, names);
+                generated = generate(base, methods, classDir, new KeyClassLoader(key));
+                // Only classes dexmaker actually wrote out can be loaded on the next launch
+                if (findJar(classDir) != null) {
+                    fIndex.setProperty(key, generated.getName());
+                    trim();
+                    saveIndex();
+                }
+            }
+            fClasses.put(key, generated);
+            return generated;
+        }
+    }
+
+    /**
+     * Have dexmaker generate a subclass of base.
+     * <p>
+     * ProxyBuilder keeps a process-wide cache of the classes it generated,
+     * keyed by base class, parent class loader and interfaces, but not by the
+     * methods to intercept. To get a class of our own for every set of
+     * overridden methods each key gets its own parent class loader.
+     *
+     * @param base
+     * @param methods The methods to intercept, null for every method that can
+     *            be overridden
+     * @param classDir Where dexmaker writes the dex file of the class
+     * @param parent Parent class loader of the class loader of the class
+     * @return
+     * @throws IOException
+     */
+    Class<?> generate(Class<?> base, Method[] methods, File classDir, ClassLoader parent) throws IOException {
+        ProxyBuilder<?> builder = ProxyBuilder.forClass(base).dexCache(classDir).parentClassLoader(parent);
+        if (methods != null) {
+            builder.onlyMethods(methods);
+        }
+        return builder.buildProxyClass();
+    }
+
+    /**
+     * Key for a generated class, also used as the name of its directory on
+     * disk: the base class name, followed by a digest of the overridden method
+     * names. '-' never appears in class names, so keys can't clash.
+     */
+    static String cacheKey(Class<?> base, Set<String> sortedNames) {
+        if (sortedNames == null) {
+            return base.getName();
+        }
+        return base.getName() + '-' + digest(sortedNames);
+    }
+
+    /**
+     * Short digest of a set of overridden method names. Must match
+     * overridesDigest() in the build hook's prebuild.js.
+     */
+    static String digest(Set<String> sortedNames) {
+        StringBuilder joined = new StringBuilder();
+        for (String name : sortedNames) {
+            joined.append(name).append(',');
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(joined.toString().getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                hex.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(hash[i] & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The methods of the base class a generated subclass has to intercept: the
+     * overridable ones JS overrides by name, and any abstract ones, which
+     * can't be left unimplemented. Everything else (for a View, the likes of
+     * onMeasure, draw and dispatchTouchEvent) stays a plain virtual call into
+     * the base class.
+     *
+     * @param base
+     * @param names Names of the methods JS overrides
+     * @return
+     */
+    static Method[] methodsToIntercept(Class<?> base, Set<String> names) {
+        // Most derived declaration of each signature wins
+        Map<String, Method> bySignature = new LinkedHashMap<String, Method>();
+        for (Class<?> c = base; c != null; c = c.getSuperclass()) {
+            for (Method m : c.getDeclaredMethods()) {
+                String signature = signature(m);
+                if (!bySignature.containsKey(signature)) {
+                    bySignature.put(signature, m);
+                }
+            }
+        }
+        // Interface methods an abstract base class doesn't implement
+        for (Method m : base.getMethods()) {
+            String signature = signature(m);
+            if (!bySignature.containsKey(signature)) {
+                bySignature.put(signature, m);
+            }
+        }
+        List<Method> methods = new ArrayList<Method>();
+        for (Method m : bySignature.values()) {
+            int modifiers = m.getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || Modifier.isPrivate(modifiers)
+                    || m.isSynthetic()) {
+                continue;
+            }
+            // Package-private methods can't be overridden from the generated
+            // class' package
+            if (!Modifier.isPublic(modifiers) && !Modifier.isProtected(modifiers)) {
+                continue;
+            }
+            if (names.contains(m.getName()) || Modifier.isAbstract(modifiers)) {
+                methods.add(m);
+            }
+        }
+        return methods.toArray(new Method[methods.size()]);
+    }
+
+    private static String signature(Method m) {
+        return m.getName() + Arrays.toString(m.getParameterTypes());
+    }
+
+    /**
+     * Loads a class we generated on a previous launch from the jar dexmaker
+     * left in the class' cache directory. Returns null (and drops the entry) if
+     * it can't be loaded for any reason.
+     */
+    private Class<?> loadFromDisk(File classDir, String generatedName) {
+        File jar = findJar(classDir);
+        if (jar != null) {
+            try {
+                // Newer Android versions refuse to load writable dex files
+                jar.setReadOnly();
+                DexClassLoader loader = new DexClassLoader(jar.getPath(), classDir.getPath(), null,
+                        ProxyBuilder.class.getClassLoader());
+                Class<?> generated = loader.loadClass(generatedName);
+                classDir.setLastModified(System.currentTimeMillis());
+                return generated;
+            } catch (Throwable t) {
+                Log.w(TAG, "Unable to load cached class '" + generatedName + "', regenerating it: "
+                        + t.getMessage());
+            }
+        }
+        deleteRecursive(classDir);
+        fIndex.remove(classDir.getName());
+        return null;
+    }
+
+    private static File findJar(File classDir) {
+        File[] files = classDir.listFiles();
+        if (files == null) {
+            return null;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(".jar")) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Evict the least recently used class directories until the cache fits in
+     * {@link #MAX_DISK_BYTES}.
+     */
+    private void trim() {
+        File[] classDirs = fDir.listFiles();
+        if (classDirs == null) {
+            return;
+        }
+        long total = 0;
+        List<File> dirs = new ArrayList<File>();
+        for (File dir : classDirs) {
+            if (dir.isDirectory()) {
+                total += sizeOf(dir);
+                dirs.add(dir);
+            }
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+        Collections.sort(dirs, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File dir : dirs) {
+            if (total <= MAX_DISK_BYTES) {
+                break;
+            }
+            total -= sizeOf(dir);
+            deleteRecursive(dir);
+            // The class stays usable in this process, just not across launches
+            fIndex.remove(dir.getName());
+        }
+    }
+
+    private void loadIndex() {
+        if (fIndex != null) {
+            return;
+        }
+        fIndex = new Properties();
+        File indexFile = new File(fDir, INDEX_FILE);
+        if (!indexFile.exists()) {
+            return;
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(indexFile);
+            fIndex.load(in);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read generated class index, starting over: " + e.getMessage());
+            fIndex.clear();
+        } finally {
+            close(in);
+        }
+    }
+
+    private void saveIndex() {
+        fDir.mkdirs();
+        File tmp = new File(fDir, INDEX_FILE + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            fIndex.store(out, null);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(new File(fDir, INDEX_FILE))) {
+                Log.w(TAG, "Unable to write generated class index");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write generated class index: " + e.getMessage());
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * Name of the cache directory for this app version on this OS version.
+     * Classes generated against one version of the app (or the framework) must
+     * never be loaded by another, so we include the install time too, which
+     * changes on every reinstall even if the version code doesn't.
+     */
+    private static String versionKey(Context context) {
+        String key = "v" + CACHE_VERSION + "-api" + Build.VERSION.SDK_INT;
+        try {
+            PackageManager pm = context.getPackageManager();
+            PackageInfo info = pm.getPackageInfo(context.getPackageName(), 0);
+            key += "-" + info.versionCode + "-" + info.lastUpdateTime;
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to determine app version for generated class cache: " + e.getMessage());
+        }
+        return key;
+    }
+
+    /**
+     * Remove caches from other app/OS versions (and the unversioned dex files
+     * older releases wrote straight into the root directory).
+     */
+    private static void purgeStaleVersions(File root, File current) {
+        File[] entries = root.listFiles();
+        if (entries == null) {
+            return;
+        }
+        for (File entry : entries) {
+            if (!entry.getName().equals(current.getName())) {
+                deleteRecursive(entry);
+            }
+        }
+    }
+
+    private static long sizeOf(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+
+    private static void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Parent class loader of the generated classes of one key, only there to
+     * tell dexmaker's cache keys apart. Delegates everything to the class
+     * loader dexmaker would have used.
+     */
+    private static final class KeyClassLoader extends ClassLoader {
+
+        private final String fKey;
+
+        KeyClassLoader(String key) {
+            super(ProxyBuilder.class.getClassLoader());
+            fKey = key;
+        }
+
+        @Override
+        public String toString() {
+            return "KeyClassLoader[" + fKey + "]";
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -10,8 +10,9 @@ package hyperloop;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Arrays;
 
-import org.appcelerator.kroll.KrollFunction;
+import com.android.dx.stock.ProxyBuilder;
 
 /**
  * This is an invocation handler used to forward method calls from Java to the
@@ -25,10 +26,31 @@ class HyperloopInvocationHandler implements InvocationHandler {
     protected InstanceProxy hp;
 
     /**
-     * Special flag we use for forcing subclasses to call up to their super implementations,
-     * ignoring dynamic subclass JS overrides
+     * The object and method whose call has to go up to the super
+     * implementation, ignoring dynamic subclass JS overrides. Kept per thread:
+     * calls through "super" may run on the JS thread, the UI thread and the
+     * async call pool at the same time.
      */
-    protected boolean callSuper = false;
+    private static final ThreadLocal<SuperCall> fgSuperCallTarget = new ThreadLocal<SuperCall>();
+
+    private static final class SuperCall {
+        final Object receiver;
+        final Method method;
+
+        SuperCall(Object receiver, Method method) {
+            this.receiver = receiver;
+            this.method = method;
+        }
+
+        /**
+         * The generated class hands us the method it overrides, which may be
+         * declared by a different class than the one resolved from JS.
+         */
+        boolean matches(Object proxy, Method m) {
+            return receiver == proxy && method.getName().equals(m.getName())
+                    && Arrays.equals(method.getParameterTypes(), m.getParameterTypes());
+        }
+    }
 
     protected HyperloopInvocationHandler(InstanceProxy hyperloopProxy) {
         this.hp = hyperloopProxy;
@@ -45,28 +67,75 @@ class HyperloopInvocationHandler implements InvocationHandler {
         this(null);
     }
 
+    /**
+     * Mark the call the current thread makes to method on receiver as a call
+     * to super, until {@link #endSuperCall()}. Generated subclasses only
+     * intercept the overridden methods, so the method itself may never reach
+     * the handler: the flag must not apply to whatever it calls in turn.
+     */
+    static void beginSuperCall(Object receiver, Method method) {
+        fgSuperCallTarget.set(new SuperCall(receiver, method));
+    }
+
+    static void endSuperCall() {
+        fgSuperCallTarget.remove();
+    }
+
+    /**
+     * @param proxy
+     * @param method The intercepted method
+     * @return Whether this call to proxy was made through super. Only the first
+     *         intercepted call of the method counts, whatever it calls in turn
+     *         is a regular call again.
+     */
+    protected static boolean consumeSuperCall(Object proxy, Method method) {
+        SuperCall call = fgSuperCallTarget.get();
+        if (call == null || !call.matches(proxy, method)) {
+            return false;
+        }
+        fgSuperCallTarget.remove();
+        return true;
+    }
+
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        if (this.hp == null || this.hp.getOverrides() == null) {
+        OverrideDispatchTable table = (this.hp == null) ? null : this.hp.getDispatchTable();
+        if (table == null) {
             return null;
         }
         // TODO What if the method was marked final?
-        Object value = hp.getOverrides().get(method.getName());
-        if (value instanceof KrollFunction) {
-            KrollFunction kf = (KrollFunction) value;
-            return HyperloopUtil
-                    .unwrap(kf.call(this.hp.getKrollObject(),
-                            HyperloopUtil.wrapArguments(method.getParameterTypes(), args)));
-        } else {
-            if ("equals".equals(method.getName()) && args.length == 1) {
+        return dispatch(proxy, table.get(method), args);
+    }
+
+    /**
+     * Call the JS override for the method, or handle equals/hashCode/toString
+     * if there is none.
+     */
+    protected Object dispatch(Object proxy, OverrideDispatchTable.Entry entry, Object[] args) {
+        OverrideDispatchTable.MethodPlan plan = entry.plan;
+        if (entry.delivery != null) {
+            entry.delivery.enqueue(this.hp.getKrollObject(), args);
+            return null;
+        }
+        if (entry.function != null) {
+            HyperloopStats.recordCallback(entry.callbacks);
+            Object[] wrapped = entry.arguments.acquire(args);
+            try {
+                return HyperloopUtil.unwrap(entry.function.call(this.hp.getKrollObject(), wrapped));
+            } finally {
+                entry.arguments.release(wrapped);
+            }
+        }
+        switch (plan.objectMethod) {
+            case OverrideDispatchTable.OBJECT_EQUALS:
                 return doEquals(proxy, args[0]);
-            } else if ("hashCode".equals(method.getName()) && (args == null || args.length == 0)) {
+            case OverrideDispatchTable.OBJECT_HASHCODE:
                 return this.hashCode(); // Use the invocation handler's hash code in place of the dynamic proxy's
-            } else if ("toString".equals(method.getName()) && (args == null || args.length == 0)) {
+            case OverrideDispatchTable.OBJECT_TOSTRING:
                 return proxy.getClass().getName() + "@" + Integer.toHexString(this.hashCode());
-            }
+            default:
+                return null;
         }
-        return null;
     }
 
     void setProxy(InstanceProxy proxy) {
@@ -77,11 +146,26 @@ class HyperloopInvocationHandler implements InvocationHandler {
         if (other == null) {
             return false;
         }
-        InvocationHandler handler = Proxy.getInvocationHandler(other);
+        InvocationHandler handler = getInvocationHandler(other);
         if (!(handler instanceof HyperloopInvocationHandler)) {
             return false;
         }
         return ((HyperloopInvocationHandler) handler).hp == this.hp;
     }
 
+    /**
+     * @return the handler of a java.lang.reflect.Proxy, dexmaker generated or
+     *         prebuilt instance; null for any other object.
+     */
+    private static InvocationHandler getInvocationHandler(Object instance) {
+        Class<?> c = instance.getClass();
+        if (Proxy.isProxyClass(c)) {
+            return Proxy.getInvocationHandler(instance);
+        }
+        if (ProxyBuilder.isProxyClass(c)) {
+            return ProxyBuilder.getInvocationHandler(instance);
+        }
+        return null;
+    }
+
 }
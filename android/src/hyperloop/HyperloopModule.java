@@ -9,7 +9,12 @@ package hyperloop;
 
 import java.io.IOException;
 import java.lang.reflect.Modifier;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
 
+import org.appcelerator.kroll.KrollDict;
+import org.appcelerator.kroll.KrollFunction;
 import org.appcelerator.kroll.KrollModule;
 import org.appcelerator.kroll.annotations.Kroll;
 import org.appcelerator.kroll.common.Log;
@@ -17,8 +22,6 @@ import org.appcelerator.titanium.TiApplication;
 import org.appcelerator.titanium.util.TiUIHelper;
 import hyperloop.HyperloopUtil;
 
-import com.android.dx.stock.ProxyBuilder;
-
 import android.content.Context;
 
 @Kroll.module(name="Hyperloop", id="hyperloop")
@@ -29,6 +32,10 @@ public class HyperloopModule extends KrollModule {
     // TODO Make this an instance field! need to clean up HyperloopUtil to be able to access it though...
     private static ProxyFactory fgProxyFactory = new ProxyFactory();
 
+    private static GeneratedClassCache fgClassCache;
+
+    private static AsyncClassGenerator fgAsyncClassGenerator;
+
     public HyperloopModule() {
         super();
     }
@@ -79,6 +86,87 @@ public class HyperloopModule extends KrollModule {
      */
     @Kroll.method
     public BaseProxy implement(String className) {
+        return generateImplementation(className);
+    }
+
+    /**
+     * Like {@link #implement(String)}, but generates the class on a background
+     * thread. The callback receives a dictionary holding
+     * <code>success</code>, and the resulting <code>proxy</code> or an
+     * <code>error</code> message. Concurrent requests for the same interface
+     * share a single generation.
+     *
+     * @param className
+     * @param callback
+     */
+    @Kroll.method
+    public void implementAsync(final String className,
+            @Kroll.argument(optional = true) KrollFunction callback) {
+        getAsyncClassGenerator().submit("implement:" + className, new Callable<BaseProxy>() {
+            @Override
+            public BaseProxy call() throws Exception {
+                return generateImplementation(className);
+            }
+        }, callback, getKrollObject());
+    }
+
+    /**
+     * This allows JS to get a reference to a dynamically generated class that
+     * extends the given base Java class. If the names of the methods JS
+     * overrides are given, only those methods get intercepted; calls to the
+     * rest go straight to the base class.
+     *
+     * @param className
+     * @param overrides Names of the overridden methods, all overridable
+     *            methods are intercepted if missing
+     * @return
+     */
+    @Kroll.method
+    public BaseProxy extend(String className, @Kroll.argument(optional = true) Object[] overrides) {
+        return generateSubclass(className, toOverrideNames(overrides), getActivity().getApplicationContext());
+    }
+
+    /**
+     * Like {@link #extend(String)}, but generates the class (or loads it from
+     * the on-disk cache) on a background thread, so startup code can request
+     * all the subclasses it needs without blocking the JS thread. The callback
+     * receives a dictionary holding <code>success</code>, and the resulting
+     * <code>proxy</code> or an <code>error</code> message. Concurrent requests
+     * for the same class share a single generation.
+     *
+     * @param className
+     * @param overrides Names of the overridden methods, may be null
+     * @param callback
+     */
+    @Kroll.method
+    public void extendAsync(final String className, Object[] overrides,
+            @Kroll.argument(optional = true) KrollFunction callback) {
+        // Grab the context here, the activity may be gone by the time we run
+        final Context context = getActivity().getApplicationContext();
+        final Set<String> names = toOverrideNames(overrides);
+        String key = "extend:" + className + (names == null ? "" : ":" + names);
+        getAsyncClassGenerator().submit(key, new Callable<BaseProxy>() {
+            @Override
+            public BaseProxy call() throws Exception {
+                return generateSubclass(className, names, context);
+            }
+        }, callback, getKrollObject());
+    }
+
+    private static Set<String> toOverrideNames(Object[] overrides) {
+        if (overrides == null) {
+            return null;
+        }
+        Set<String> names = new TreeSet<String>();
+        for (Object name : overrides) {
+            if (name != null) {
+                names.add(name.toString());
+            }
+        }
+        return names;
+    }
+
+    private static BaseProxy generateImplementation(String className) {
         if (className == null) {
             Log.e(TAG, "'class' value cannot be null.");
             return null;
@@ -91,18 +179,15 @@ public class HyperloopModule extends KrollModule {
             Log.e(TAG, "Cannot implement a class that isn't an interface!");
             return null;
         }
+        // Use the implementation generated at build time if there is one
+        Class<?> prebuilt = PrebuiltClasses.findImplementation(c);
+        if (prebuilt != null) {
+            return new InterfaceSubclassProxy(c, prebuilt);
+        }
         return new InterfaceSubclassProxy(c);
     }
 
-    /**
-     * This allows JS to get a reference to a dynamically generated class that
-     * extends the given base Java class.
-     *
-     * @param className
-     * @return
-     */
-    @Kroll.method
-    public BaseProxy extend(String className) {
+    private static BaseProxy generateSubclass(String className, Set<String> overrides, Context context) {
         // This is the fully qualified name of the class we're extending
         if (className == null) {
             Log.e(TAG, "'class' value cannot be null.");
@@ -135,13 +220,16 @@ public class HyperloopModule extends KrollModule {
         // TODO Validate that we're not trying to override final methods?
         // TODO Validate we're not trying to override static methods?
 
+        // Use the subclass generated at build time if there is one
+        Class<?> prebuilt = PrebuiltClasses.findSubclass(c, overrides);
+        if (prebuilt != null) {
+            return new DynamicSubclassProxy(prebuilt, className);
+        }
+
         try {
-            // Ok, now we generate a dynamic class that extends the class passed
-            // in. We then wrap the class with a proxy.
-            Class<?> generated = ProxyBuilder.forClass(c)
-                    .dexCache(getActivity().getApplicationContext().getDir("dx",
-                            Context.MODE_PRIVATE))
-                    .buildProxyClass();
+            // Ok, now we generate (or reuse a previously generated) dynamic class
+            // that extends the class passed in. We then wrap the class with a proxy.
+            Class<?> generated = getGeneratedClassCache(context).get(c, overrides);
 
             return new DynamicSubclassProxy(generated, className);
         } catch (IOException e) {
@@ -151,6 +239,87 @@ public class HyperloopModule extends KrollModule {
         return null;
     }
 
+    /**
+     * Run a sequence of method calls on the UI thread, all in a single post
+     * (think: all the view updates for a frame). Each call is a dictionary
+     * holding the <code>target</code> proxy (or its JS wrapper), and
+     * <code>func</code>, <code>args</code> and <code>instanceMethod</code> as
+     * for callNativeFunction(). The calls run in order; the first failing one
+     * ends the transaction, and none run if any can't be resolved. The outcome is a dictionary holding
+     * <code>success</code>, the <code>results</code> of the calls that ran
+     * and, on failure, the <code>error</code> message and <code>index</code>
+     * of the failed call.
+     * <p>
+     * Without a callback this waits for the UI thread and returns the outcome.
+     * With one, it returns right away and the callback receives the outcome.
+     *
+     * @param calls
+     * @param callback
+     * @return The outcome, or null if a callback was given
+     */
+    @Kroll.method
+    public KrollDict runOnUiThread(Object[] calls, @Kroll.argument(optional = true) KrollFunction callback) {
+        UiTransaction transaction = UiTransaction.prepare(calls == null ? new Object[0] : calls);
+        if (callback != null) {
+            transaction.runAsync(callback, getKrollObject());
+            return null;
+        }
+        return transaction.run();
+    }
+
+    /**
+     * Size the pool of threads that callNativeFunctionAsync() (and the
+     * generated <code>callNativeAsync()</code> helpers) run methods on.
+     * Accepts <code>maxThreads</code> (default 4) and <code>queueSize</code>,
+     * the number of calls that may wait for a thread (default 128) before
+     * further calls run synchronously.
+     *
+     * @param options
+     */
+    @Kroll.method
+    public void configureAsyncCalls(KrollDict options) {
+        AsyncNativeCalls.configure(options.optInt("maxThreads", AsyncNativeCalls.DEFAULT_MAX_THREADS),
+                options.optInt("queueSize", AsyncNativeCalls.DEFAULT_QUEUE_SIZE));
+    }
+
+    /**
+     * Treat instances of the given class, when passed to a JS override, as
+     * only valid until the override returns (like the MotionEvents the
+     * framework recycles). They're handed to JS in a proxy that gets reused
+     * for every call of that override.
+     *
+     * @param className
+     */
+    @Kroll.method
+    public void addTransientType(String className) {
+        if (className == null) {
+            Log.e(TAG, "'className' value cannot be null.");
+            return;
+        }
+        CallbackArguments.addTransientType(className);
+    }
+
+    /**
+     * Snapshot of the runtime counters: live instance proxies by class, proxy
+     * cache hit/miss/eviction counts, method resolution and overload scoring
+     * counts, (sampled) bytes converted across the bridge and callback counts
+     * per override.
+     *
+     * @return
+     */
+    @Kroll.method
+    public KrollDict getStats() {
+        return HyperloopStats.snapshot(getProxyFactory());
+    }
+
+    /**
+     * Zero all the counters reported by {@link #getStats()}.
+     */
+    @Kroll.method
+    public void resetStats() {
+        HyperloopStats.reset(getProxyFactory());
+    }
+
     @Override
     public String getApiName() {
         return "Hyperloop";
@@ -160,6 +329,20 @@ public class HyperloopModule extends KrollModule {
         return fgProxyFactory;
     }
 
+    static synchronized AsyncClassGenerator getAsyncClassGenerator() {
+        if (fgAsyncClassGenerator == null) {
+            fgAsyncClassGenerator = new AsyncClassGenerator();
+        }
+        return fgAsyncClassGenerator;
+    }
+
+    static synchronized GeneratedClassCache getGeneratedClassCache(Context context) {
+        if (fgClassCache == null) {
+            fgClassCache = new GeneratedClassCache(context);
+        }
+        return fgClassCache;
+    }
+
     /**
      * Look up a class by name.
      *
@@ -0,0 +1,284 @@
+/**
+ * Appcelerator Titanium Mobile
+ * Copyright (c) 2015 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the Apache Public License
+ * Please see the LICENSE included with this distribution for details.
+ */
+
+package hyperloop;
+
+import java.lang.reflect.Array;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.appcelerator.kroll.KrollDict;
+
+/**
+ * Runtime counters for the hyperloop bridge, exposed to JS through
+ * Hyperloop.getStats(). These are meant to stay enabled in production builds,
+ * so every counter on a hot path is striped across threads, and sizing a
+ * converted value is only done for one out of every {@link #SAMPLE_RATE}
+ * conversions on a given thread and scaled back up when reported.
+ */
+final class HyperloopStats {
+
+    /**
+     * We record one out of this many bridge conversions per thread.
+     */
+    static final int SAMPLE_RATE = 16;
+
+    // ProxyFactory instance cache
+    static final Counter instanceCacheHits = new Counter();
+    static final Counter instanceCacheMisses = new Counter();
+    static final Counter instanceCacheEvictions = new Counter();
+
+    // GeneratedClassCache and PrebuiltClasses (Hyperloop.extend/implement)
+    static final Counter generatedClassMemoryHits = new Counter();
+    static final Counter generatedClassDiskHits = new Counter();
+    static final Counter generatedClassMisses = new Counter();
+    static final Counter prebuiltClassHits = new Counter();
+
+    // Method/constructor resolution
+    static final Counter methodResolutions = new Counter();
+    static final Counter constructorResolutions = new Counter();
+    static final Counter resolutionFastPathHits = new Counter();
+    static final Counter overloadScorings = new Counter();
+
+    // Bridge conversions (sampled)
+    static final Counter bytesToJS = new Counter();
+    static final Counter bytesFromJS = new Counter();
+
+    // Java -> JS callbacks (exact, the per override counters get looked up once per dispatch entry)
+    static final Counter callbacks = new Counter();
+    static final Counter callbackProxiesReused = new Counter();
+    static final Counter callbacksCoalesced = new Counter();
+    static final Counter callbacksBatched = new Counter();
+    static final Counter callbacksBlocked = new Counter();
+    private static final ConcurrentHashMap<String, Counter> callbacksByOverride = new ConcurrentHashMap<String, Counter>();
+
+    /**
+     * Each direction keeps its own tick, so a call pattern that alternates
+     * between them (say, one argument in and a return value out per call)
+     * can't make the same direction hit the sample every time.
+     */
+    private static final int TO_JS = 0;
+    private static final int FROM_JS = 1;
+
+    private static final ThreadLocal<int[]> sampleTick = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[2];
+        }
+    };
+
+    private HyperloopStats() {
+    }
+
+    /**
+     * @param direction {@link #TO_JS} or {@link #FROM_JS}
+     * @return true once every {@link #SAMPLE_RATE} conversions in the
+     *         direction on the current thread.
+     */
+    private static boolean sample(int direction) {
+        int[] tick = sampleTick.get();
+        if (++tick[direction] < SAMPLE_RATE) {
+            return false;
+        }
+        tick[direction] = 0;
+        return true;
+    }
+
+    /**
+     * Record a value handed from Java to JS.
+     */
+    static void recordToJS(Object value) {
+        if (sample(TO_JS)) {
+            bytesToJS.add(SAMPLE_RATE * (long) sizeOf(value));
+        }
+    }
+
+    /**
+     * Record a value handed from JS to Java.
+     */
+    static void recordFromJS(Object value) {
+        if (sample(FROM_JS)) {
+            bytesFromJS.add(SAMPLE_RATE * (long) sizeOf(value));
+        }
+    }
+
+    /**
+     * @return The counter of callbacks of an override, to hand to
+     *         {@link #recordCallback(Counter)}. Meant to be looked up once and
+     *         kept, not on every call.
+     */
+    static Counter callbackCounter(String className, String methodName) {
+        String key = className + "#" + methodName;
+        Counter counter = callbacksByOverride.get(key);
+        if (counter == null) {
+            counter = new Counter();
+            Counter existing = callbacksByOverride.putIfAbsent(key, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Record a Java to JS callback of an overridden method.
+     *
+     * @param byOverride The override's counter, from {@link #callbackCounter(String, String)}
+     */
+    static void recordCallback(Counter byOverride) {
+        callbacks.increment();
+        byOverride.increment();
+    }
+
+    /**
+     * Rough size in bytes of the payload of a converted value. Only strings and
+     * arrays are counted, everything else is either a boxed primitive or a
+     * proxy reference.
+     */
+    private static int sizeOf(Object value) {
+        if (value instanceof String) {
+            return ((String) value).length() * 2;
+        }
+        if (value == null || !value.getClass().isArray()) {
+            return 0;
+        }
+        Class<?> component = value.getClass().getComponentType();
+        int length = Array.getLength(value);
+        if (component == byte.class || component == boolean.class) {
+            return length;
+        } else if (component == short.class || component == char.class) {
+            return length * 2;
+        } else if (component == long.class || component == double.class) {
+            return length * 8;
+        }
+        // int, float and object references
+        return length * 4;
+    }
+
+    /**
+     * Generate a snapshot of all counters as a dictionary we can hand to JS.
+     */
+    static KrollDict snapshot(ProxyFactory factory) {
+        KrollDict stats = new KrollDict();
+
+        KrollDict instances = new KrollDict();
+        Map<String, Integer> liveByClass = factory.getLiveInstanceCounts();
+        int live = 0;
+        for (Integer count : liveByClass.values()) {
+            live += count;
+        }
+        instances.put("live", live);
+        instances.put("liveByClass", new KrollDict(liveByClass));
+        instances.put("cacheHits", instanceCacheHits.get());
+        instances.put("cacheMisses", instanceCacheMisses.get());
+        instances.put("cacheEvictions", instanceCacheEvictions.get());
+        stats.put("instanceProxies", instances);
+
+        stats.put("classProxies", factory.getClassCacheStats());
+
+        KrollDict generated = new KrollDict();
+        generated.put("memoryHits", generatedClassMemoryHits.get());
+        generated.put("diskHits", generatedClassDiskHits.get());
+        generated.put("misses", generatedClassMisses.get());
+        generated.put("prebuiltHits", prebuiltClassHits.get());
+        stats.put("generatedClasses", generated);
+
+        KrollDict resolution = new KrollDict();
+        resolution.put("methodResolutions", methodResolutions.get());
+        resolution.put("constructorResolutions", constructorResolutions.get());
+        resolution.put("fastPathHits", resolutionFastPathHits.get());
+        resolution.put("overloadScorings", overloadScorings.get());
+        stats.put("resolution", resolution);
+
+        KrollDict bridge = new KrollDict();
+        bridge.put("bytesToJS", bytesToJS.get());
+        bridge.put("bytesFromJS", bytesFromJS.get());
+        bridge.put("sampleRate", SAMPLE_RATE);
+        stats.put("bridge", bridge);
+
+        KrollDict callbackStats = new KrollDict();
+        callbackStats.put("total", callbacks.get());
+        callbackStats.put("reusedProxies", callbackProxiesReused.get());
+        callbackStats.put("coalesced", callbacksCoalesced.get());
+        callbackStats.put("batched", callbacksBatched.get());
+        callbackStats.put("blocked", callbacksBlocked.get());
+        KrollDict byOverride = new KrollDict();
+        for (Map.Entry<String, Counter> entry : callbacksByOverride.entrySet()) {
+            byOverride.put(entry.getKey(), entry.getValue().get());
+        }
+        callbackStats.put("byOverride", byOverride);
+        stats.put("callbacks", callbackStats);
+
+        return stats;
+    }
+
+    /**
+     * Zero all counters.
+     */
+    static void reset(ProxyFactory factory) {
+        instanceCacheHits.reset();
+        instanceCacheMisses.reset();
+        instanceCacheEvictions.reset();
+        generatedClassMemoryHits.reset();
+        generatedClassDiskHits.reset();
+        generatedClassMisses.reset();
+        prebuiltClassHits.reset();
+        methodResolutions.reset();
+        constructorResolutions.reset();
+        resolutionFastPathHits.reset();
+        overloadScorings.reset();
+        bytesToJS.reset();
+        bytesFromJS.reset();
+        callbacks.reset();
+        callbackProxiesReused.reset();
+        callbacksCoalesced.reset();
+        callbacksBatched.reset();
+        callbacksBlocked.reset();
+        // Dispatch entries hold on to these, so zero them rather than dropping them
+        for (Counter counter : callbacksByOverride.values()) {
+            counter.reset();
+        }
+        sampleTick.remove();
+        factory.resetClassCacheStats();
+    }
+
+    /**
+     * A counter striped over a handful of slots (picked by thread id) so
+     * threads incrementing concurrently don't all contend on the same cache
+     * line. Reads sum the slots, so they're only a best-effort snapshot.
+     */
+    static final class Counter {
+
+        private static final int STRIPES = 8; // must be a power of two
+        private static final int PADDING = 8; // longs per 64 byte cache line
+
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+        void increment() {
+            add(1);
+        }
+
+        void add(long delta) {
+            cells.getAndAdd(((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING, delta);
+        }
+
+        long get() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.get(i * PADDING);
+            }
+            return sum;
+        }
+
+        void reset() {
+            for (int i = 0; i < STRIPES; i++) {
+                cells.set(i * PADDING, 0);
+            }
+        }
+    }
+}
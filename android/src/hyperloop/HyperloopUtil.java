@@ -64,6 +64,95 @@ abstract class HyperloopUtil {
         return wrapped;
     }
 
+    // How wrapArguments(Class[], byte[], Object[]) converts each argument
+    static final byte WRAP_AS_IS = 0;
+    static final byte WRAP_BYTE = 1;
+    static final byte WRAP_CHAR = 2;
+    static final byte WRAP_DYNAMIC = 3;
+
+    /**
+     * Work out up front how each argument of a method with the given parameter
+     * types needs to be converted for JS, so repeated calls to the same method
+     * (i.e. callbacks into JS overrides) don't have to run through all the type
+     * checks in {@link #wrap(Class, Object)} for every argument.
+     *
+     * @param params
+     * @return
+     */
+    static byte[] planWrapArguments(Class<?>[] params) {
+        byte[] plan = new byte[params.length];
+        for (int i = 0; i < params.length; i++) {
+            Class<?> param = params[i];
+            if (param == byte.class || param == Byte.class) {
+                plan[i] = WRAP_BYTE;
+            } else if (param == char.class || param == Character.class) {
+                plan[i] = WRAP_CHAR;
+            } else if (param.isPrimitive() || param == String.class || param == Integer.class
+                    || param == Long.class || param == Short.class || param == Float.class
+                    || param == Double.class || param == Boolean.class) {
+                // the bridge converts these itself
+                plan[i] = WRAP_AS_IS;
+            } else {
+                plan[i] = WRAP_DYNAMIC;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Same as {@link #wrapArguments(Class[], Object[])}, using a plan from
+     * {@link #planWrapArguments(Class[])}.
+     *
+     * @param params
+     * @param plan
+     * @param args
+     * @return
+     */
+    static Object[] wrapArguments(Class<?>[] params, byte[] plan, Object[] args) {
+        final int argCount = (args == null) ? 0 : args.length;
+        if (argCount == 0) {
+            // Never hand a null argument array to the native V8Function
+            return new Object[0];
+        }
+        if (argCount > plan.length) {
+            // varargs, let the general conversion deal with it
+            return wrapArguments(params, args);
+        }
+        Object[] wrapped = new Object[argCount];
+        for (int i = 0; i < argCount; i++) {
+            wrapped[i] = wrapArgument(params[i], plan[i], args[i]);
+        }
+        return wrapped;
+    }
+
+    /**
+     * Convert a single argument for JS following its plan from
+     * {@link #planWrapArguments(Class[])}.
+     *
+     * @param param
+     * @param plan
+     * @param arg
+     * @return
+     */
+    static Object wrapArgument(Class<?> param, byte plan, Object arg) {
+        if (arg == null) {
+            return null;
+        }
+        switch (plan) {
+            case WRAP_AS_IS:
+                HyperloopStats.recordToJS(arg);
+                return arg;
+            case WRAP_BYTE:
+                HyperloopStats.recordToJS(arg);
+                return convertTo(arg, short.class);
+            case WRAP_CHAR:
+                HyperloopStats.recordToJS(arg);
+                return arg.toString();
+            default:
+                return wrap(param, arg);
+        }
+    }
+
     /**
      * Wraps a return value in a proxy if necessary. if it's already a proxy or
      * primitive, the framework will convert to JS for us.
@@ -75,6 +164,7 @@ abstract class HyperloopUtil {
         if (result == null) {
             return result;
         }
+        HyperloopStats.recordToJS(result);
         if (result instanceof byte[]) { // our bridge can't handle byte[], but can do short[] - so convert to short[]
             return convertTo(result, short[].class);
         } else if (result instanceof Byte) { // our bridge can't handle byte, but can do short - so convert to short
@@ -144,6 +234,7 @@ abstract class HyperloopUtil {
         final int argCount = (arguments == null) ? 0 : arguments.length;
         Object[] unwrapped = new Object[argCount];
         for (int i = 0; i < argCount; i++) {
+            HyperloopStats.recordFromJS(arguments[i]);
             unwrapped[i] = unwrap(arguments[i]);
         }
         return unwrapped;
@@ -339,11 +430,14 @@ abstract class HyperloopUtil {
      */
     static Method resolveMethod(Class<?> c, String name, Object[] arguments,
             boolean instanceMethod) {
+        HyperloopStats.methodResolutions.increment();
         int argCount = (arguments == null) ? 0 : arguments.length;
         // if no args, assume we want a no-arg constructor!
         if (argCount == 0) {
             try {
-                return c.getMethod(name);
+                Method m = c.getMethod(name);
+                HyperloopStats.resolutionFastPathHits.increment();
+                return m;
             } catch (NoSuchMethodException e) {
                 // may be no method with this name and no args (bad method name,
                 // or maybe takes varargs)
@@ -376,6 +470,7 @@ abstract class HyperloopUtil {
             if (match != null) {
                 // Shortcut if the distance is 0: That's an exact match...
                 if (match.isExact()) {
+                    HyperloopStats.resolutionFastPathHits.increment();
                     return match.method;
                 }
                 matches.add(match);
@@ -399,11 +494,14 @@ abstract class HyperloopUtil {
      * @return
      */
     static Constructor resolveConstructor(Class<?> c, Object[] arguments) {
+        HyperloopStats.constructorResolutions.increment();
         int argCount = (arguments == null) ? 0 : arguments.length;
         // if no args, assume we want a no-arg constructor!
         if (argCount == 0) {
             try {
-                return c.getConstructor();
+                Constructor<?> cons = c.getConstructor();
+                HyperloopStats.resolutionFastPathHits.increment();
+                return cons;
             } catch (NoSuchMethodException e) {
                 // TODO may be no no-arg constructor!
                 e.printStackTrace();
@@ -430,6 +528,7 @@ abstract class HyperloopUtil {
             if (match != null) {
                 // Shortcut if the distance is 0: That's an exact match...
                 if (match.isExact()) {
+                    HyperloopStats.resolutionFastPathHits.increment();
                     return match.method;
                 }
                 matches.add(match);
@@ -456,6 +555,7 @@ abstract class HyperloopUtil {
      */
     private static <T> Match<T> createMatch(T m, Class<?>[] params, Object[] arguments,
             boolean isVarArgs) {
+        HyperloopStats.overloadScorings.increment();
         int distance = Match.EXACT; // start as exact, increasing as we get
                                     // further
         // match all arguments normally
@@ -44,6 +44,11 @@ public class InstanceProxy extends BaseProxy {
     // subclasses or instances of interfaces)?
     private Map<String, Object> overrides;
 
+    /**
+     * The overrides, compiled for the invocation handlers.
+     */
+    private volatile OverrideDispatchTable dispatchTable;
+
     /**
      * @param clazz The actual class of the wrapped object. This can differ from
      *            the type we declare ourselves as to JS. This may be a pointer
@@ -64,6 +69,17 @@ public class InstanceProxy extends BaseProxy {
         this.nativeObject = nativeObject;
     }
 
+    /**
+     * Point this proxy at another object of the same class. Only used for the
+     * recycled proxies {@link CallbackArguments} hands to JS callbacks; these
+     * never go into the ProxyFactory cache.
+     *
+     * @param nativeObject
+     */
+    void rebind(Object nativeObject) {
+        this.nativeObject = nativeObject;
+    }
+
     @Override
     public Object getWrappedObject() {
         return this.nativeObject;
@@ -130,13 +146,29 @@ public class InstanceProxy extends BaseProxy {
     // layer can't handle that
     @Kroll.method
     public void setOverrides(KrollDict overrides) {
+        initOverrides(overrides);
+    }
+
+    /**
+     * Like {@link #setOverrides(KrollDict)}, for overrides that come in as a
+     * plain map (i.e. the JS object passed to an interface constructor),
+     * without copying them.
+     *
+     * @param overrides
+     */
+    void initOverrides(Map<String, Object> overrides) {
         this.overrides = overrides;
+        this.dispatchTable = (overrides == null) ? null : new OverrideDispatchTable(overrides, this.className);
     }
 
     Map<String, Object> getOverrides() {
         return this.overrides;
     }
 
+    OverrideDispatchTable getDispatchTable() {
+        return this.dispatchTable;
+    }
+
     /**
      * Casts this instance to another type. This will change the type it reports
      * itself as to JS if the cast is safe.
@@ -174,13 +206,21 @@ public class InstanceProxy extends BaseProxy {
     }
 
     @Override
-    protected Object invokeMethod(Method m, Object receiver, Object[] convertedArgs) throws InvocationTargetException {
+    protected Object invokeConverted(Method m, Object receiver, Object[] javaArgs) throws InvocationTargetException {
         if (receiver != null && isSuper) {
-            // let the handler know this call is explicitly to super!
-            HyperloopInvocationHandler hih = (HyperloopInvocationHandler) ProxyBuilder.getInvocationHandler(receiver);
-            hih.callSuper = true;
+            // let the handler know this call is explicitly to super! Per
+            // thread, this may run on the async pool or the UI thread while
+            // the JS thread calls the same object
+            HyperloopInvocationHandler.beginSuperCall(receiver, m);
+            try {
+                return super.invokeConverted(m, receiver, javaArgs);
+            } finally {
+                // The method may not be intercepted at all, don't leave the
+                // flag set for whatever gets called next
+                HyperloopInvocationHandler.endSuperCall();
+            }
         }
-        return super.invokeMethod(m, receiver, convertedArgs);
+        return super.invokeConverted(m, receiver, javaArgs);
     }
 
     @Kroll.getProperty
@@ -191,6 +231,7 @@ public class InstanceProxy extends BaseProxy {
         // create a copy of the proxy that we set as "super" to avoid using override for next method call
         InstanceProxy superCopy = new InstanceProxy(this.clazz, this.className, this.nativeObject);
         superCopy.overrides = this.overrides;
+        superCopy.dispatchTable = this.dispatchTable;
         superCopy.isSuper = true; // we have to specially mark this one, so that just before method calls we let handler know not to use overrides
         return superCopy;
     }
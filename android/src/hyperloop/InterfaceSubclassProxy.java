@@ -11,24 +11,72 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.appcelerator.kroll.KrollDict;
 import org.appcelerator.kroll.annotations.Kroll;
 import org.appcelerator.kroll.common.Log;
 
 /**
  * Represents a wrapper around a dynamic class that implements an interface.
+ * The java.lang.reflect.Proxy class for each interface and the
+ * (InvocationHandler) constructor of each implementation class are looked up
+ * once per process, so creating an instance (think a listener per list row) is
+ * a single constructor call.
  *
  * @author cwilliams
  */
 @Kroll.proxy(parentModule = HyperloopModule.class)
 public class InterfaceSubclassProxy extends DynamicSubclassProxy {
 
+    private static final Map<Class<?>, Class<?>> fgProxyClasses = new ConcurrentHashMap<Class<?>, Class<?>>();
+    private static final Map<Class<?>, Constructor<?>> fgConstructors = new ConcurrentHashMap<Class<?>, Constructor<?>>();
+
+    private final Constructor<?> fConstructor;
+
     public InterfaceSubclassProxy(Class<?> interfaceClass) {
-        super(
-                Proxy.getProxyClass(interfaceClass.getClassLoader(),
-                        interfaceClass),
-                interfaceClass.getName());
+        this(interfaceClass, getProxyClass(interfaceClass));
+    }
+
+    /**
+     * Wrap an implementation of the interface generated at build time. It has
+     * the same (InvocationHandler) constructor as the java.lang.reflect.Proxy
+     * classes we generate otherwise.
+     *
+     * @param interfaceClass
+     * @param implementation
+     */
+    public InterfaceSubclassProxy(Class<?> interfaceClass, Class<?> implementation) {
+        super(implementation, interfaceClass.getName());
+        fConstructor = getConstructor(implementation);
+    }
+
+    static Class<?> getProxyClass(Class<?> interfaceClass) {
+        Class<?> proxyClass = fgProxyClasses.get(interfaceClass);
+        if (proxyClass == null) {
+            proxyClass = Proxy.getProxyClass(interfaceClass.getClassLoader(), interfaceClass);
+            fgProxyClasses.put(interfaceClass, proxyClass);
+        }
+        return proxyClass;
+    }
+
+    /**
+     * @param implementation
+     * @return The (InvocationHandler) constructor of the implementation class,
+     *         null if it has none
+     */
+    static Constructor<?> getConstructor(Class<?> implementation) {
+        Constructor<?> cons = fgConstructors.get(implementation);
+        if (cons == null) {
+            try {
+                cons = implementation.getConstructor(InvocationHandler.class);
+            } catch (NoSuchMethodException e) {
+                Log.e(TAG, "Class '" + implementation.getName() + "' has no (InvocationHandler) constructor", e);
+                return null;
+            }
+            cons.setAccessible(true);
+            fgConstructors.put(implementation, cons);
+        }
+        return cons;
     }
 
     @SuppressWarnings("unchecked")
@@ -43,21 +91,15 @@ public class InterfaceSubclassProxy extends DynamicSubclassProxy {
         }
         // TODO Should we validate that there are overrides for each of the
         // methods listed on the interface?
-        KrollDict dict;
-        Map<String, Object> overrides = (Map<String, Object>) initArgs[0];
-        if (overrides instanceof KrollDict) {
-            dict = (KrollDict) overrides;
-        } else {
-            dict = new KrollDict(overrides);
+        if (fConstructor == null) {
+            return null;
         }
         try {
-            Constructor<?> cons = this.clazz.getConstructor(InvocationHandler.class);
             HyperloopInvocationHandler hih = new HyperloopInvocationHandler();
-            cons.setAccessible(true);
-            Object instance = cons.newInstance(hih);
+            Object instance = fConstructor.newInstance(hih);
             // Generate an instance of this dynamic subclass, have it pretend to be of the interface's type, hold the native java instance.
             InstanceProxy proxy = new InstanceProxy(clazz, getApiName(), instance);
-            proxy.setOverrides(dict);
+            proxy.initOverrides((Map<String, Object>) initArgs[0]);
             hih.setProxy(proxy);
             return proxy;
         } catch (Exception e) {
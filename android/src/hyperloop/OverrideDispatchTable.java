@@ -0,0 +1,181 @@
+/**
+ * Appcelerator Titanium Mobile
+ * Copyright (c) 2015 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the Apache Public License
+ * Please see the LICENSE included with this distribution for details.
+ */
+
+package hyperloop;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.appcelerator.kroll.KrollFunction;
+import org.appcelerator.kroll.common.Log;
+
+/**
+ * The JS overrides of an instance, compiled for the invocation handlers. The
+ * override lookup for a Method is done once: after that, each intercepted call
+ * is a single lookup keyed by the Method instance (the generated classes hand
+ * us the same Method objects every time), yielding the KrollFunction to call
+ * (or that there's no override and super should be called), and how to
+ * convert the arguments.
+ */
+final class OverrideDispatchTable {
+
+    private static final String TAG = "OverrideDispatchTable";
+
+    static final int NOT_OBJECT_METHOD = 0;
+    static final int OBJECT_EQUALS = 1;
+    static final int OBJECT_HASHCODE = 2;
+    static final int OBJECT_TOSTRING = 3;
+
+    /**
+     * Per method details that don't depend on the overrides, shared by all
+     * instances.
+     */
+    private static final Map<Method, MethodPlan> fgPlans = new ConcurrentHashMap<Method, MethodPlan>();
+
+    /**
+     * Names of all overrides, even ones that aren't functions: those still
+     * stop a dynamic subclass from calling up to super.
+     */
+    private final Map<String, KrollFunction> fOverrides;
+
+    /**
+     * Delivery policies of the overrides that don't want direct calls.
+     */
+    private final Map<String, CallbackDelivery.Policy> fPolicies = new HashMap<String, CallbackDelivery.Policy>();
+    private final ConcurrentHashMap<Method, Entry> fEntries = new ConcurrentHashMap<Method, Entry>();
+    private final String fApiName;
+
+    /**
+     * @param overrides Override name to either the JS function, or an object
+     *            holding the function as <code>handler</code> along with its
+     *            delivery policy (see {@link CallbackDelivery.Policy})
+     * @param apiName Name of the type we're overriding, for stats
+     */
+    OverrideDispatchTable(Map<String, Object> overrides, String apiName) {
+        fApiName = apiName;
+        fOverrides = new HashMap<String, KrollFunction>(overrides.size());
+        for (Map.Entry<String, Object> override : overrides.entrySet()) {
+            Object value = override.getValue();
+            if (value instanceof Map) {
+                Map<?, ?> spec = (Map<?, ?>) value;
+                value = spec.get("handler");
+                CallbackDelivery.Policy policy = CallbackDelivery.Policy.parse(spec);
+                if (policy != null) {
+                    fPolicies.put(override.getKey(), policy);
+                }
+            }
+            fOverrides.put(override.getKey(), value instanceof KrollFunction ? (KrollFunction) value : null);
+        }
+    }
+
+    /**
+     * @param method
+     * @return How to dispatch a call to the given method.
+     */
+    Entry get(Method method) {
+        Entry entry = fEntries.get(method);
+        if (entry == null) {
+            MethodPlan plan = planFor(method);
+            String name = method.getName();
+            KrollFunction function = fOverrides.get(name);
+            HyperloopStats.Counter callbacks = (function == null) ? null
+                    : HyperloopStats.callbackCounter(fApiName, name);
+            CallbackDelivery delivery = null;
+            CallbackDelivery.Policy policy = fPolicies.get(name);
+            if (policy != null && function != null) {
+                if (plan.returnsVoid) {
+                    delivery = new CallbackDelivery(policy, plan, function, callbacks);
+                } else {
+                    Log.w(TAG, "Override '" + name + "' returns a value, it can't use '" + policy.mode
+                            + "' delivery. Calling it directly.");
+                }
+            }
+            entry = new Entry(plan, fOverrides.containsKey(name), function, callbacks, delivery);
+            // Another thread may have beaten us to it: keep its entry, so all
+            // calls share a single delivery (and its pending calls)
+            Entry existing = fEntries.putIfAbsent(method, entry);
+            if (existing != null) {
+                entry = existing;
+            }
+        }
+        return entry;
+    }
+
+    private static MethodPlan planFor(Method method) {
+        MethodPlan plan = fgPlans.get(method);
+        if (plan == null) {
+            plan = new MethodPlan(method);
+            fgPlans.put(method, plan);
+        }
+        return plan;
+    }
+
+    static final class MethodPlan {
+        final String name;
+        final Class<?>[] params;
+        final byte[] wrapPlan;
+        final int objectMethod;
+        final boolean returnsVoid;
+
+        MethodPlan(Method method) {
+            this.name = method.getName();
+            this.params = method.getParameterTypes();
+            this.returnsVoid = method.getReturnType() == void.class;
+            this.wrapPlan = HyperloopUtil.planWrapArguments(this.params);
+            if ("equals".equals(name) && params.length == 1 && params[0] == Object.class) {
+                this.objectMethod = OBJECT_EQUALS;
+            } else if ("hashCode".equals(name) && params.length == 0) {
+                this.objectMethod = OBJECT_HASHCODE;
+            } else if ("toString".equals(name) && params.length == 0) {
+                this.objectMethod = OBJECT_TOSTRING;
+            } else {
+                this.objectMethod = NOT_OBJECT_METHOD;
+            }
+        }
+    }
+
+    static final class Entry {
+        final MethodPlan plan;
+
+        /**
+         * Whether JS declared an override by this name at all.
+         */
+        final boolean overridden;
+
+        /**
+         * The JS function to call, null if the override isn't a function.
+         */
+        final KrollFunction function;
+
+        /**
+         * Stats counter of the calls of the function, null if there's none.
+         */
+        final HyperloopStats.Counter callbacks;
+
+        /**
+         * Argument storage reused across calls, null if there's no function.
+         */
+        final CallbackArguments arguments;
+
+        /**
+         * Non-null if calls get delivered to JS asynchronously instead.
+         */
+        final CallbackDelivery delivery;
+
+        Entry(MethodPlan plan, boolean overridden, KrollFunction function, HyperloopStats.Counter callbacks,
+                CallbackDelivery delivery) {
+            this.plan = plan;
+            this.overridden = overridden;
+            this.function = function;
+            this.callbacks = callbacks;
+            this.delivery = delivery;
+            this.arguments = (function == null || delivery != null) ? null : new CallbackArguments(plan);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Appcelerator Titanium Mobile
+ * Copyright (c) 2015 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the Apache Public License
+ * Please see the LICENSE included with this distribution for details.
+ */
+
+package hyperloop;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lookup of the subclasses and interface implementations the build generated
+ * ahead of time for the types an app's JS extends or implements. These are
+ * compiled into the app like any other class, so using one costs a
+ * Class.forName instead of generating a class at runtime.
+ *
+ * Prebuilt classes follow the same protocol as the ones dexmaker generates
+ * (an InvocationHandler in a <code>$__handler</code> field, and
+ * <code>super$name$returnType</code> methods to reach the super
+ * implementation), so ProxyBuilder.setInvocationHandler/callSuper work with
+ * either.
+ */
+final class PrebuiltClasses {
+
+    /**
+     * Package the build hook generates the classes into.
+     */
+    private static final String PACKAGE = "hyperloop.prebuilt.";
+
+    private static final String SUBCLASS_SUFFIX = "_Subclass";
+    private static final String IMPLEMENTATION_SUFFIX = "_Impl";
+
+    /**
+     * Marker for types we already looked up and found no prebuilt class for.
+     */
+    private static final Class<?> NONE = Void.class;
+
+    private static final Map<String, Class<?>> fgLookups = new ConcurrentHashMap<String, Class<?>>();
+
+    private PrebuiltClasses() {
+    }
+
+    /**
+     * Like the classes generated at runtime, prebuilt subclasses only
+     * intercept the methods JS overrides, so the build generates one for every
+     * set of overridden method names it finds for a type.
+     *
+     * @param base
+     * @param overrides Sorted names of the methods JS overrides
+     * @return The prebuilt subclass of base intercepting exactly these
+     *         methods, or null if the build didn't generate one.
+     */
+    static Class<?> findSubclass(Class<?> base, Set<String> overrides) {
+        if (overrides == null) {
+            return null;
+        }
+        return find(base, SUBCLASS_SUFFIX + "_" + GeneratedClassCache.digest(overrides));
+    }
+
+    /**
+     * @param iface
+     * @return The prebuilt implementation of the interface, or null if the
+     *         build didn't generate one.
+     */
+    static Class<?> findImplementation(Class<?> iface) {
+        return find(iface, IMPLEMENTATION_SUFFIX);
+    }
+
+    private static Class<?> find(Class<?> type, String suffix) {
+        String name = PACKAGE + mangle(type.getName()) + suffix;
+        Class<?> found = fgLookups.get(name);
+        if (found == null) {
+            found = NONE;
+            try {
+                Class<?> c = Class.forName(name, true, PrebuiltClasses.class.getClassLoader());
+                // Guard against a stale class generated for some other type
+                if (type.isAssignableFrom(c)) {
+                    found = c;
+                }
+            } catch (ClassNotFoundException e) {
+                // not generated at build time, fall back to generating at runtime
+            } catch (LinkageError e) {
+                // generated against a different version of the type
+            }
+            fgLookups.put(name, found);
+        }
+        if (found == NONE) {
+            return null;
+        }
+        HyperloopStats.prebuiltClassHits.increment();
+        return found;
+    }
+
+    /**
+     * Turn a fully qualified class name into a legal, unique simple class name.
+     * Must match the mangling in the build hook's prebuild.js.
+     */
+    static String mangle(String className) {
+        return className.replace("_", "_1").replace("$", "_2").replace('.', '_');
+    }
+}
@@ -8,8 +8,11 @@
 package hyperloop;
 
 import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.WeakHashMap;
 
+import org.appcelerator.kroll.KrollDict;
 import org.appcelerator.kroll.common.Log;
 
 import android.util.LruCache;
@@ -40,6 +43,14 @@ public class ProxyFactory {
     private WeakHashMap<Object, WeakReference<InstanceProxy>> fInstanceCache;
     private LruCache<String, ClassProxy> fClassCache;
 
+    /**
+     * LruCache keeps its own hit/miss/eviction counts but can't reset them, so
+     * we remember where they were at the last Hyperloop.resetStats() call.
+     */
+    private int fClassHitsBase;
+    private int fClassMissesBase;
+    private int fClassEvictionsBase;
+
     ProxyFactory() {
         Log.d(TAG, "Instantiating a ProxyFactory");
         fInstanceCache = new WeakHashMap<Object, WeakReference<InstanceProxy>>();
@@ -59,10 +70,14 @@ public class ProxyFactory {
                 WeakReference<InstanceProxy> ref = fInstanceCache.get(object);
                 InstanceProxy proxy = ref.get();
                 if (proxy != null) {
+                    HyperloopStats.instanceCacheHits.increment();
                     return proxy;
                 }
+                // proxy was collected while the object stayed alive
+                HyperloopStats.instanceCacheEvictions.increment();
             }
         }
+        HyperloopStats.instanceCacheMisses.increment();
         // Insert into cache!
         InstanceProxy proxy = new InstanceProxy(object.getClass(), paramType.getName(), object);
         fInstanceCache.put(object, new WeakReference<InstanceProxy>(proxy));
@@ -89,7 +104,43 @@ public class ProxyFactory {
     }
 
     public void release(InstanceProxy instanceProxy) {
-        fInstanceCache.remove(instanceProxy.getWrappedObject());
+        if (fInstanceCache.remove(instanceProxy.getWrappedObject()) != null) {
+            HyperloopStats.instanceCacheEvictions.increment();
+        }
+    }
+
+    /**
+     * Counts the instance proxies we still hold, keyed by the class name they
+     * report to JS.
+     *
+     * @return
+     */
+    Map<String, Integer> getLiveInstanceCounts() {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (WeakReference<InstanceProxy> ref : fInstanceCache.values()) {
+            InstanceProxy proxy = (ref == null) ? null : ref.get();
+            if (proxy == null) {
+                continue;
+            }
+            Integer count = counts.get(proxy.className);
+            counts.put(proxy.className, (count == null) ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    KrollDict getClassCacheStats() {
+        KrollDict stats = new KrollDict();
+        stats.put("size", fClassCache.size());
+        stats.put("cacheHits", fClassCache.hitCount() - fClassHitsBase);
+        stats.put("cacheMisses", fClassCache.missCount() - fClassMissesBase);
+        stats.put("cacheEvictions", fClassCache.evictionCount() - fClassEvictionsBase);
+        return stats;
+    }
+
+    void resetClassCacheStats() {
+        fClassHitsBase = fClassCache.hitCount();
+        fClassMissesBase = fClassCache.missCount();
+        fClassEvictionsBase = fClassCache.evictionCount();
     }
 
 }
@@ -0,0 +1,45 @@
+/**
+ * Appcelerator Titanium Mobile
+ * Copyright (c) 2015 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the Apache Public License
+ * Please see the LICENSE included with this distribution for details.
+ */
+
+package hyperloop;
+
+import java.util.concurrent.Executor;
+
+import org.appcelerator.kroll.KrollRuntime;
+import org.appcelerator.kroll.common.TiMessenger;
+
+/**
+ * Hands work to the JS (Kroll runtime) thread, for results produced on our
+ * background threads that have to be converted or delivered to JS there.
+ */
+final class RuntimeExecutor {
+
+    /**
+     * Runs work on the JS thread. Replaced by tests.
+     */
+    static Executor fgExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            TiMessenger.getRuntimeMessenger().post(command);
+        }
+    };
+
+    private RuntimeExecutor() {
+    }
+
+    static void execute(Runnable command) {
+        fgExecutor.execute(command);
+    }
+
+    /**
+     * @return Whether we're running on the JS thread.
+     */
+    static boolean isRuntimeThread() {
+        KrollRuntime runtime = KrollRuntime.getInstance();
+        return runtime != null && runtime.isRuntimeThread();
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * Appcelerator Titanium Mobile
+ * Copyright (c) 2015 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the Apache Public License
+ * Please see the LICENSE included with this distribution for details.
+ */
+
+package hyperloop;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.appcelerator.kroll.KrollDict;
+import org.appcelerator.kroll.KrollFunction;
+import org.appcelerator.kroll.KrollObject;
+import org.appcelerator.kroll.common.AsyncResult;
+import org.appcelerator.kroll.common.Log;
+import org.appcelerator.kroll.common.TiMessenger;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+/**
+ * A sequence of method calls (typically view mutations) run on the UI thread
+ * in a single post, for Hyperloop.runOnUiThread(). Like a regular call, each
+ * method gets resolved and its arguments converted on the calling thread up
+ * front, and the results are wrapped for JS back on the JS thread; only the
+ * invocations themselves happen on the UI thread.
+ * <p>
+ * The calls run in order, and the first one that fails ends the transaction.
+ * If any of the calls can't be resolved, none of them run. The outcome is
+ * reported as a dictionary holding <code>success</code>, the
+ * <code>results</code> of the calls that ran, and on failure the
+ * <code>error</code> message and the <code>index</code> of the failed call.
+ */
+final class UiTransaction {
+
+    private static final String TAG = "UiTransaction";
+
+    private static final int MSG_RUN = 1;
+
+    /**
+     * Runs work on the UI thread. Replaced by tests.
+     */
+    static Executor fgMainExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            TiMessenger.postOnMain(command);
+        }
+    };
+
+    /**
+     * Runs work on the UI thread and waits for it to finish. Goes through
+     * TiMessenger, which keeps the JS thread's own messages flowing while it
+     * waits, so UI code calling back into JS can't deadlock us. Replaced by
+     * tests.
+     */
+    static Executor fgBlockingMainExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            TiMessenger.sendBlockingMainMessage(getMainHandler().obtainMessage(MSG_RUN), command);
+        }
+    };
+
+    private static Handler fgMainHandler;
+
+    private final BaseProxy.NativeCall[] fCalls;
+    private final Object[][] fJavaArgs;
+    private final Object[] fResults;
+    private int fCompleted;
+    private Throwable fError;
+    private int fErrorIndex = -1;
+
+    private UiTransaction(int size) {
+        fCalls = new BaseProxy.NativeCall[size];
+        fJavaArgs = new Object[size][];
+        fResults = new Object[size];
+    }
+
+    private static synchronized Handler getMainHandler() {
+        if (fgMainHandler == null) {
+            fgMainHandler = new Handler(Looper.getMainLooper(), new Handler.Callback() {
+                @Override
+                public boolean handleMessage(Message msg) {
+                    AsyncResult result = (AsyncResult) msg.obj;
+                    try {
+                        ((Runnable) result.getArg()).run();
+                        result.setResult(null);
+                    } catch (RuntimeException e) {
+                        result.setException(e);
+                    }
+                    return true;
+                }
+            });
+        }
+        return fgMainHandler;
+    }
+
+    /**
+     * Resolve the calls described by the given dictionaries, each holding the
+     * <code>target</code> proxy (or JS wrapper of one) along with
+     * <code>func</code>, <code>args</code> and <code>instanceMethod</code> as
+     * for callNativeFunction().
+     *
+     * @param calls
+     * @return
+     */
+    static UiTransaction prepare(Object[] calls) {
+        UiTransaction transaction = new UiTransaction(calls.length);
+        for (int i = 0; i < calls.length; i++) {
+            if (!(calls[i] instanceof Map)) {
+                transaction.fail(i, new IllegalArgumentException("Call #" + i + " is not an object"));
+                break;
+            }
+            @SuppressWarnings("unchecked")
+            KrollDict dict = new KrollDict((Map<String, Object>) calls[i]);
+            BaseProxy target = toProxy(dict.get("target"));
+            if (target == null) {
+                transaction.fail(i, new IllegalArgumentException("Call #" + i + " has no native 'target'"));
+                break;
+            }
+            BaseProxy.NativeCall call = target.prepareCall(dict);
+            if (call == null) {
+                transaction.fail(i, new NoSuchMethodException("Unable to resolve method '" + dict.getString("func")
+                        + "' of " + target.getApiName()));
+                break;
+            }
+            Method m = call.method;
+            try {
+                transaction.fJavaArgs[i] = HyperloopUtil.convert(call.convertedArgs, m.getParameterTypes(),
+                        m.isVarArgs());
+            } catch (RuntimeException e) {
+                transaction.fail(i, e);
+                break;
+            }
+            transaction.fCalls[i] = call;
+        }
+        return transaction;
+    }
+
+    /**
+     * Accept proxies as well as the JS wrapper types, which hold theirs in
+     * $native.
+     */
+    private static BaseProxy toProxy(Object target) {
+        if (target instanceof Map) {
+            target = ((Map<?, ?>) target).get("$native");
+        }
+        return (target instanceof BaseProxy) ? (BaseProxy) target : null;
+    }
+
+    private void fail(int index, Throwable error) {
+        fError = error;
+        fErrorIndex = index;
+    }
+
+    /**
+     * Invoke the calls, on the current thread. Stops at the first failure.
+     */
+    private void invokeAll() {
+        if (fError != null) {
+            // didn't resolve
+            return;
+        }
+        for (int i = 0; i < fCalls.length; i++) {
+            BaseProxy.NativeCall call = fCalls[i];
+            try {
+                fResults[i] = call.proxy.invokeConverted(call.method, call.receiver, fJavaArgs[i]);
+                fCompleted = i + 1;
+            } catch (InvocationTargetException e) {
+                fail(i, e.getCause());
+                break;
+            } catch (Throwable t) {
+                fail(i, t);
+                break;
+            }
+        }
+        if (fError != null) {
+            Log.e(TAG, "Call #" + fErrorIndex + " of UI transaction failed", fError);
+        }
+    }
+
+    /**
+     * Run the calls in a single post to the UI thread (or right away if we're
+     * on it), waiting for them to finish.
+     *
+     * @return The outcome dictionary
+     */
+    KrollDict run() {
+        if (TiMessenger.isOnMainThread()) {
+            invokeAll();
+            return toResult();
+        }
+        fgBlockingMainExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                invokeAll();
+            }
+        });
+        return toResult();
+    }
+
+    /**
+     * Run the calls in a single post to the UI thread without waiting, then
+     * pass the outcome to the callback on the JS thread.
+     *
+     * @param callback
+     * @param thisObject
+     */
+    void runAsync(final KrollFunction callback, final KrollObject thisObject) {
+        fgMainExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                invokeAll();
+                if (callback == null) {
+                    return;
+                }
+                RuntimeExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.call(thisObject, new Object[] { toResult() });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Build the outcome dictionary. Must run on the JS thread, since results
+     * get wrapped in proxies.
+     */
+    private KrollDict toResult() {
+        Object[] results = new Object[fCompleted];
+        for (int i = 0; i < fCompleted; i++) {
+            // Force reported class to be the return type of the method!
+            results[i] = HyperloopUtil.wrap(fCalls[i].method.getReturnType(), fResults[i]);
+        }
+        KrollDict result = new KrollDict();
+        result.put("success", fError == null);
+        result.put("results", results);
+        if (fError != null) {
+            String message = fError.getMessage();
+            result.put("error", message != null ? message : fError.toString());
+            result.put("index", fErrorIndex);
+        }
+        return result;
+    }
+}
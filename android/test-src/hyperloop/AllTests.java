@@ -5,7 +5,7 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ HyperloopUtilTest.class, InstanceProxyTest.class })
+@SuiteClasses({ AsyncClassGeneratorTest.class, AsyncNativeCallsTest.class, CallbackArgumentsTest.class, CallbackDeliveryTest.class, GeneratedClassCacheTest.class, HyperloopStatsTest.class, HyperloopUtilTest.class, InstanceProxyTest.class, InterfaceSubclassProxyTest.class, OverrideDispatchTableTest.class, PrebuiltClassesTest.class, UiTransactionTest.class })
 public class AllTests {
 
 }
@@ -0,0 +1,77 @@
+package hyperloop;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.appcelerator.kroll.KrollFunction;
+import org.appcelerator.kroll.KrollObject;
+import org.junit.Test;
+
+public class AsyncClassGeneratorTest {
+
+    @Test
+    public void testConcurrentRequestsShareOneGeneration() throws Exception {
+        AsyncClassGenerator generator = new AsyncClassGenerator();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger generations = new AtomicInteger();
+        Callable<BaseProxy> slowGeneration = new Callable<BaseProxy>() {
+            @Override
+            public BaseProxy call() throws Exception {
+                generations.incrementAndGet();
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        };
+        RecordingFunction first = new RecordingFunction();
+        RecordingFunction second = new RecordingFunction();
+
+        generator.submit("extend:a.B", slowGeneration, first, null);
+        generator.submit("extend:a.B", slowGeneration, second, null);
+        release.countDown();
+
+        assertTrue(first.done.await(5, TimeUnit.SECONDS));
+        assertTrue(second.done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, generations.get());
+        assertEquals(Boolean.FALSE, first.events.get(0).get("success"));
+        assertNotNull(first.events.get(0).get("error"));
+        assertSame(first.events.get(0), second.events.get(0));
+
+        // Once done, a new request generates again
+        RecordingFunction third = new RecordingFunction();
+        generator.submit("extend:a.B", slowGeneration, third, null);
+        assertTrue(third.done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, generations.get());
+    }
+
+    private static class RecordingFunction implements KrollFunction {
+        final List<HashMap> events = new CopyOnWriteArrayList<HashMap>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        @Override
+        public Object call(KrollObject thisObject, Object[] args) {
+            return null;
+        }
+
+        @Override
+        public Object call(KrollObject thisObject, HashMap args) {
+            return null;
+        }
+
+        @Override
+        public void callAsync(KrollObject thisObject, Object[] args) {
+        }
+
+        @Override
+        public void callAsync(KrollObject thisObject, HashMap args) {
+            events.add(args);
+            done.countDown();
+        }
+    }
+}
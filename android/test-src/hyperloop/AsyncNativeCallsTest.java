@@ -0,0 +1,133 @@
+package hyperloop;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.appcelerator.kroll.KrollDict;
+import org.appcelerator.kroll.KrollFunction;
+import org.appcelerator.kroll.KrollObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncNativeCallsTest {
+
+    public static class Worker {
+        public String threadName(String prefix) {
+            return prefix + Thread.currentThread().getName();
+        }
+
+        public void fail() {
+            throw new IllegalStateException("disk full");
+        }
+    }
+
+    private static class ResultFunction implements KrollFunction {
+        private Map<?, ?> fEvent;
+
+        @Override
+        public synchronized Object call(KrollObject thisObject, Object[] args) {
+            fEvent = (Map<?, ?>) args[0];
+            notifyAll();
+            return null;
+        }
+
+        @Override
+        public Object call(KrollObject thisObject, HashMap args) {
+            return null;
+        }
+
+        @Override
+        public void callAsync(KrollObject thisObject, Object[] args) {
+        }
+
+        @Override
+        public void callAsync(KrollObject thisObject, HashMap args) {
+        }
+
+        synchronized Map<?, ?> await() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 2000;
+            while (fEvent == null && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            return fEvent;
+        }
+    }
+
+    private Executor fOriginal;
+
+    @Before
+    public void setUp() {
+        fOriginal = RuntimeExecutor.fgExecutor;
+        RuntimeExecutor.fgExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        RuntimeExecutor.fgExecutor = fOriginal;
+    }
+
+    private static KrollDict call(String func, Object... args) {
+        KrollDict dict = new KrollDict();
+        dict.put("func", func);
+        dict.put("instanceMethod", true);
+        dict.put("args", args);
+        return dict;
+    }
+
+    @Test
+    public void testMethodRunsInBackground() throws Exception {
+        InstanceProxy proxy = new InstanceProxy(Worker.class, Worker.class.getName(), new Worker());
+        ResultFunction callback = new ResultFunction();
+
+        proxy.callNativeFunctionAsync(new Object[] { call("threadName", "on "), callback });
+
+        Map<?, ?> event = callback.await();
+        assertEquals(Boolean.TRUE, event.get("success"));
+        String result = (String) event.get("result");
+        assertTrue(result, result.startsWith("on hyperloop-async-"));
+    }
+
+    @Test
+    public void testAsyncFlagWithCallbackInDictionary() throws Exception {
+        InstanceProxy proxy = new InstanceProxy(Worker.class, Worker.class.getName(), new Worker());
+        ResultFunction callback = new ResultFunction();
+        KrollDict dict = call("threadName", "");
+        dict.put("async", true);
+        dict.put("callback", callback);
+
+        assertNull(proxy.callNativeFunction(new Object[] { dict }));
+
+        assertEquals(Boolean.TRUE, callback.await().get("success"));
+    }
+
+    @Test
+    public void testExceptionIsReported() throws Exception {
+        InstanceProxy proxy = new InstanceProxy(Worker.class, Worker.class.getName(), new Worker());
+        ResultFunction callback = new ResultFunction();
+
+        proxy.callNativeFunctionAsync(new Object[] { call("fail"), callback });
+
+        Map<?, ?> event = callback.await();
+        assertEquals(Boolean.FALSE, event.get("success"));
+        assertEquals("disk full", event.get("error"));
+    }
+
+    @Test
+    public void testUnresolvedMethodIsReported() throws Exception {
+        InstanceProxy proxy = new InstanceProxy(Worker.class, Worker.class.getName(), new Worker());
+        ResultFunction callback = new ResultFunction();
+
+        proxy.callNativeFunctionAsync(new Object[] { call("noSuchMethod"), callback });
+
+        assertEquals(Boolean.FALSE, callback.await().get("success"));
+    }
+}
@@ -0,0 +1,113 @@
+package hyperloop;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.appcelerator.kroll.KrollFunction;
+import org.appcelerator.kroll.KrollObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CallbackArgumentsTest {
+
+    public static class TransientEvent {
+    }
+
+    /**
+     * Records the arguments it's called with, and what the proxies wrapped
+     * during the call.
+     */
+    private static class RecordingFunction implements KrollFunction {
+        final List<Object[]> args = new ArrayList<Object[]>();
+        final List<Object> wrappedDuringCall = new ArrayList<Object>();
+
+        @Override
+        public Object call(KrollObject thisObject, Object[] args) {
+            this.args.add(args.clone());
+            wrappedDuringCall.add(((InstanceProxy) args[0]).getWrappedObject());
+            return 0;
+        }
+
+        @Override
+        public Object call(KrollObject thisObject, HashMap args) {
+            return null;
+        }
+
+        @Override
+        public void callAsync(KrollObject thisObject, Object[] args) {
+        }
+
+        @Override
+        public void callAsync(KrollObject thisObject, HashMap args) {
+        }
+    }
+
+    @BeforeClass
+    public static void registerTransientType() {
+        CallbackArguments.addTransientType(TransientEvent.class.getName());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Comparator<Object> implement(KrollFunction compare) {
+        Map<String, Object> overrides = new HashMap<String, Object>();
+        overrides.put("compare", compare);
+        InstanceProxy proxy = new InterfaceSubclassProxy(Comparator.class).newInstance(new Object[] { overrides });
+        return (Comparator<Object>) proxy.getWrappedObject();
+    }
+
+    @Test
+    public void testTransientArgumentProxyIsRecycled() throws Exception {
+        RecordingFunction compare = new RecordingFunction();
+        Comparator<Object> comparator = implement(compare);
+        TransientEvent first = new TransientEvent();
+        TransientEvent second = new TransientEvent();
+
+        comparator.compare(first, "a");
+        comparator.compare(second, "b");
+
+        InstanceProxy proxy = (InstanceProxy) compare.args.get(0)[0];
+        assertSame(proxy, compare.args.get(1)[0]);
+        assertSame(first, compare.wrappedDuringCall.get(0));
+        assertSame(second, compare.wrappedDuringCall.get(1));
+        // only valid during the callback
+        assertNull(proxy.getWrappedObject());
+        assertEquals("a", compare.args.get(0)[1]);
+        assertEquals("b", compare.args.get(1)[1]);
+    }
+
+    @Test
+    public void testOtherArgumentsGoThroughProxyFactory() throws Exception {
+        RecordingFunction compare = new RecordingFunction();
+        Comparator<Object> comparator = implement(compare);
+        StringBuilder kept = new StringBuilder();
+
+        comparator.compare(kept, "a");
+
+        InstanceProxy proxy = (InstanceProxy) compare.args.get(0)[0];
+        assertSame(kept, proxy.getWrappedObject());
+    }
+
+    @Test
+    public void testArgumentArrayIsReusedAndCleared() throws Exception {
+        OverrideDispatchTable.MethodPlan plan = new OverrideDispatchTable.MethodPlan(
+                Comparator.class.getMethod("compare", Object.class, Object.class));
+        CallbackArguments arguments = new CallbackArguments(plan);
+
+        Object[] first = arguments.acquire(new Object[] { "a", "b" });
+        // nested call while the first is still in use gets its own array
+        Object[] nested = arguments.acquire(new Object[] { "c", "d" });
+        assertNotSame(first, nested);
+        arguments.release(nested);
+        arguments.release(first);
+        assertNull(first[0]);
+
+        Object[] second = arguments.acquire(new Object[] { "e", "f" });
+        assertSame(first, second);
+        assertEquals("e", second[0]);
+    }
+}
@@ -0,0 +1,177 @@
+package hyperloop;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.appcelerator.kroll.KrollFunction;
+import org.appcelerator.kroll.KrollObject;
+import org.junit.Test;
+
+public class CallbackDeliveryTest {
+
+    public interface Listener {
+        void onValue(int value, float[] values);
+    }
+
+    private static class RecordingFunction implements KrollFunction {
+        final List<Object[]> calls = new ArrayList<Object[]>();
+        final List<Object[]> asyncCalls = new ArrayList<Object[]>();
+
+        @Override
+        public synchronized Object call(KrollObject thisObject, Object[] args) {
+            calls.add(args.clone());
+            return 0;
+        }
+
+        @Override
+        public Object call(KrollObject thisObject, HashMap args) {
+            return null;
+        }
+
+        @Override
+        public synchronized void callAsync(KrollObject thisObject, Object[] args) {
+            asyncCalls.add(args);
+            notifyAll();
+        }
+
+        @Override
+        public void callAsync(KrollObject thisObject, HashMap args) {
+        }
+
+        synchronized void awaitAsyncCall() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 2000;
+            while (asyncCalls.isEmpty() && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+        }
+    }
+
+    private static Object implement(Class<?> iface, String method, KrollFunction function, String delivery,
+            long interval, int maxBatch) {
+        Map<String, Object> policy = new HashMap<String, Object>();
+        policy.put("handler", function);
+        policy.put("delivery", delivery);
+        policy.put("interval", interval);
+        policy.put("maxBatch", maxBatch);
+        Map<String, Object> overrides = new HashMap<String, Object>();
+        overrides.put(method, policy);
+        return new InterfaceSubclassProxy(iface).newInstance(new Object[] { overrides }).getWrappedObject();
+    }
+
+    @Test
+    public void testBatchPacksCallsIntoColumns() throws Exception {
+        RecordingFunction function = new RecordingFunction();
+        Listener listener = (Listener) implement(Listener.class, "onValue", function, "batch", 60000, 3);
+        float[] buffer = new float[] { 1f };
+
+        listener.onValue(1, buffer);
+        buffer[0] = 2f; // the caller reuses its buffer
+        listener.onValue(2, buffer);
+        assertTrue(function.asyncCalls.isEmpty());
+        listener.onValue(3, null);
+
+        assertTrue(function.calls.isEmpty());
+        assertEquals(1, function.asyncCalls.size());
+        Map<?, ?> batch = (Map<?, ?>) function.asyncCalls.get(0)[0];
+        assertEquals(3, batch.get("count"));
+        Object[] columns = (Object[]) batch.get("args");
+        assertArrayEquals(new int[] { 1, 2, 3 }, (int[]) columns[0]);
+        Object[] values = (Object[]) columns[1];
+        assertArrayEquals(new float[] { 1f }, (float[]) values[0], 0f);
+        assertArrayEquals(new float[] { 2f }, (float[]) values[1], 0f);
+        assertNull(values[2]);
+    }
+
+    @Test
+    public void testCoalesceDeliversLatestOnly() throws Exception {
+        RecordingFunction function = new RecordingFunction();
+        Listener listener = (Listener) implement(Listener.class, "onValue", function, "coalesce", 50, 0);
+
+        for (int i = 1; i <= 5; i++) {
+            listener.onValue(i, null);
+        }
+        function.awaitAsyncCall();
+
+        assertTrue(function.calls.isEmpty());
+        assertEquals(1, function.asyncCalls.size());
+        assertEquals(5, function.asyncCalls.get(0)[0]);
+    }
+
+    @Test
+    public void testAsyncDoesNotBlockCallerUntilQueueIsFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Object> received = new ArrayList<Object>();
+        KrollFunction function = new RecordingFunction() {
+            @Override
+            public Object call(KrollObject thisObject, Object[] args) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                synchronized (received) {
+                    received.add(args[0]);
+                }
+                return null;
+            }
+        };
+        ExecutorService jsThread = Executors.newSingleThreadExecutor();
+        Executor original = RuntimeExecutor.fgExecutor;
+        RuntimeExecutor.fgExecutor = jsThread;
+        try {
+            Map<String, Object> policy = new HashMap<String, Object>();
+            policy.put("handler", function);
+            policy.put("delivery", "async");
+            policy.put("queueSize", 2);
+            Map<String, Object> overrides = new HashMap<String, Object>();
+            overrides.put("onValue", policy);
+            final Listener listener = (Listener) new InterfaceSubclassProxy(Listener.class)
+                    .newInstance(new Object[] { overrides }).getWrappedObject();
+
+            // JS is stuck in the first call, yet the caller returns right away
+            listener.onValue(1, null);
+            listener.onValue(2, null);
+            Thread third = new Thread() {
+                @Override
+                public void run() {
+                    listener.onValue(3, null);
+                }
+            };
+            third.start();
+            third.join(200);
+            assertTrue("caller should block once the queue is full", third.isAlive());
+
+            release.countDown();
+            third.join(2000);
+            assertFalse(third.isAlive());
+            jsThread.shutdown();
+            assertTrue(jsThread.awaitTermination(2, TimeUnit.SECONDS));
+            assertEquals(java.util.Arrays.asList((Object) 1, 2, 3), received);
+        } finally {
+            RuntimeExecutor.fgExecutor = original;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testMethodsReturningValuesAreCalledDirectly() throws Exception {
+        RecordingFunction function = new RecordingFunction();
+        Comparator<Object> comparator = (Comparator<Object>) implement(Comparator.class, "compare", function,
+                "coalesce", 50, 0);
+
+        comparator.compare("a", "b");
+
+        assertEquals(1, function.calls.size());
+        assertTrue(function.asyncCalls.isEmpty());
+    }
+}
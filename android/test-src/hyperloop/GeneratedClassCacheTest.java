@@ -0,0 +1,141 @@
+package hyperloop;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GeneratedClassCacheTest {
+
+    @Rule
+    public TemporaryFolder fTmp = new TemporaryFolder();
+
+    /**
+     * Records what it was asked to generate instead of running dexmaker, which
+     * needs a device.
+     */
+    private static class RecordingCache extends GeneratedClassCache {
+
+        final List<Method[]> fMethods = new ArrayList<Method[]>();
+        final List<ClassLoader> fParents = new ArrayList<ClassLoader>();
+
+        RecordingCache(File dir) {
+            super(dir);
+        }
+
+        @Override
+        Class<?> generate(Class<?> base, Method[] methods, File classDir, ClassLoader parent) throws IOException {
+            fMethods.add(methods);
+            fParents.add(parent);
+            classDir.mkdirs();
+            new File(classDir, "Generated.jar").createNewFile();
+            return fMethods.size() == 1 ? ArrayList.class : LinkedList.class;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        HyperloopStats.reset(new ProxyFactory());
+    }
+
+    private static Set<String> names(Method[] methods) {
+        Set<String> names = new HashSet<String>();
+        for (Method m : methods) {
+            names.add(m.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testOnlyOverriddenAndAbstractMethodsAreIntercepted() throws Exception {
+        Method[] methods = GeneratedClassCache.methodsToIntercept(AbstractList.class,
+                new HashSet<String>(Arrays.asList("add", "notAMethod")));
+        Set<String> names = names(methods);
+        assertTrue(names.contains("add"));
+        // abstract
+        assertTrue(names.contains("get"));
+        assertTrue(names.contains("size"));
+        assertFalse(names.contains("hashCode"));
+        assertFalse(names.contains("iterator"));
+        assertFalse(names.contains("notAMethod"));
+    }
+
+    @Test
+    public void testOverloadsAreInterceptedOnce() throws Exception {
+        Method[] methods = GeneratedClassCache.methodsToIntercept(AbstractList.class,
+                new HashSet<String>(Arrays.asList("add")));
+        int adds = 0;
+        for (Method m : methods) {
+            if (m.getName().equals("add")) {
+                adds++;
+            }
+        }
+        // add(Object) and add(int, Object), each only from its most derived declaration
+        assertEquals(2, adds);
+    }
+
+    @Test
+    public void testFinalAndStaticMethodsAreNotIntercepted() throws Exception {
+        Method[] methods = GeneratedClassCache.methodsToIntercept(Thread.class,
+                new HashSet<String>(Arrays.asList("run", "getName", "currentThread")));
+        assertEquals(new HashSet<String>(Arrays.asList("run")), names(methods));
+    }
+
+    @Test
+    public void testCacheKeyDependsOnOverrideNames() throws Exception {
+        Set<String> a = new TreeSet<String>(Arrays.asList("onDraw"));
+        Set<String> b = new TreeSet<String>(Arrays.asList("onDraw", "onMeasure"));
+        assertEquals("java.lang.Thread", GeneratedClassCache.cacheKey(Thread.class, null));
+        assertTrue(GeneratedClassCache.cacheKey(Thread.class, a).startsWith("java.lang.Thread-"));
+        assertFalse(GeneratedClassCache.cacheKey(Thread.class, a).equals(GeneratedClassCache.cacheKey(Thread.class, b)));
+        assertEquals(GeneratedClassCache.cacheKey(Thread.class, b),
+                GeneratedClassCache.cacheKey(Thread.class, new TreeSet<String>(Arrays.asList("onMeasure", "onDraw"))));
+    }
+
+    @Test
+    public void testExtendingTwiceWithDifferentOverridesGeneratesTwoClasses() throws Exception {
+        RecordingCache cache = new RecordingCache(fTmp.getRoot());
+        Class<?> first = cache.get(AbstractList.class, Arrays.asList("add"));
+        Class<?> second = cache.get(AbstractList.class, Arrays.asList("clear"));
+
+        assertNotSame(first, second);
+        assertEquals(2, cache.fMethods.size());
+        Set<String> secondNames = names(cache.fMethods.get(1));
+        assertTrue(secondNames.contains("clear"));
+        assertFalse(secondNames.contains("add"));
+        // dexmaker's own cache doesn't know about the methods, only about the parent
+        assertNotSame(cache.fParents.get(0), cache.fParents.get(1));
+        assertEquals(2, HyperloopStats.generatedClassMisses.get());
+
+        // both are indexed, so a relaunch doesn't regenerate either
+        assertSame(second, cache.get(AbstractList.class, Arrays.asList("clear")));
+        assertEquals(1, HyperloopStats.generatedClassMemoryHits.get());
+        Properties index = new Properties();
+        InputStream in = new FileInputStream(new File(fTmp.getRoot(), "index.properties"));
+        try {
+            index.load(in);
+        } finally {
+            in.close();
+        }
+        assertEquals(LinkedList.class.getName(),
+                index.getProperty(GeneratedClassCache.cacheKey(AbstractList.class, new TreeSet<String>(Arrays.asList("clear")))));
+        assertEquals(2, index.size());
+    }
+}
@@ -0,0 +1,106 @@
+package hyperloop;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HyperloopStatsTest {
+
+    private ProxyFactory factory;
+
+    @Before
+    public void setUp() throws Exception {
+        factory = new ProxyFactory();
+        HyperloopStats.reset(factory);
+    }
+
+    @Test
+    public void testCounterSumsIncrementsFromAllThreads() throws Exception {
+        final HyperloopStats.Counter counter = new HyperloopStats.Counter();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int x = 0; x < 1000; x++) {
+                        counter.increment();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4000, counter.get());
+        counter.reset();
+        assertEquals(0, counter.get());
+    }
+
+    @Test
+    public void testInstanceCacheHitsAndMisses() throws Exception {
+        Object o = new Object();
+        InstanceProxy first = factory.newInstance(o);
+        InstanceProxy second = factory.newInstance(o);
+        assertSame(first, second);
+
+        Map<String, Object> stats = HyperloopStats.snapshot(factory);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> instances = (Map<String, Object>) stats.get("instanceProxies");
+        assertEquals(1L, instances.get("cacheHits"));
+        assertEquals(1L, instances.get("cacheMisses"));
+        assertEquals(1, instances.get("live"));
+    }
+
+    @Test
+    public void testBridgeBytesAreSampled() throws Exception {
+        int[] payload = new int[10];
+        for (int i = 0; i < HyperloopStats.SAMPLE_RATE; i++) {
+            HyperloopStats.recordToJS(payload);
+        }
+        // exactly one of SAMPLE_RATE calls gets measured, then scaled back up
+        assertEquals(HyperloopStats.SAMPLE_RATE * 40L, HyperloopStats.bytesToJS.get());
+    }
+
+    @Test
+    public void testConversionDirectionsAreSampledSeparately() throws Exception {
+        int[] arg = new int[10];
+        String result = "abcd";
+        for (int i = 0; i < HyperloopStats.SAMPLE_RATE; i++) {
+            // one argument in and a return value out per call
+            HyperloopStats.recordFromJS(arg);
+            HyperloopStats.recordToJS(result);
+        }
+        assertEquals(HyperloopStats.SAMPLE_RATE * 40L, HyperloopStats.bytesFromJS.get());
+        assertEquals(HyperloopStats.SAMPLE_RATE * 8L, HyperloopStats.bytesToJS.get());
+    }
+
+    @Test
+    public void testCallbacksAreCountedPerOverride() throws Exception {
+        HyperloopStats.Counter onDown = HyperloopStats.callbackCounter("Listener", "onDown");
+        HyperloopStats.Counter onUp = HyperloopStats.callbackCounter("Listener", "onUp");
+        assertSame(onDown, HyperloopStats.callbackCounter("Listener", "onDown"));
+        for (int i = 0; i < HyperloopStats.SAMPLE_RATE; i++) {
+            // alternating overrides
+            HyperloopStats.recordCallback(onDown);
+            HyperloopStats.recordCallback(onUp);
+        }
+        Map<String, Object> stats = HyperloopStats.snapshot(factory);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> callbacks = (Map<String, Object>) stats.get("callbacks");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> byOverride = (Map<String, Object>) callbacks.get("byOverride");
+        assertEquals(2L * HyperloopStats.SAMPLE_RATE, callbacks.get("total"));
+        assertEquals((long) HyperloopStats.SAMPLE_RATE, byOverride.get("Listener#onDown"));
+        assertEquals((long) HyperloopStats.SAMPLE_RATE, byOverride.get("Listener#onUp"));
+
+        // counters handed out before a reset keep counting
+        HyperloopStats.reset(factory);
+        HyperloopStats.recordCallback(onDown);
+        assertEquals(1L, onDown.get());
+        assertEquals(0L, onUp.get());
+    }
+}
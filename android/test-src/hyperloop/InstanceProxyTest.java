@@ -2,6 +2,8 @@ package hyperloop;
 
 import static org.junit.Assert.*;
 
+import java.lang.reflect.Method;
+
 import org.appcelerator.kroll.KrollDict;
 import org.junit.After;
 import org.junit.Before;
@@ -740,6 +742,82 @@ public class InstanceProxyTest {
         // TODO How do we confirm it did the right thing outside of no excpetions?
     }
 
+    @Test
+    public void testSuperCallsArePerThread() throws Exception {
+        final Object receiver = new Object();
+        final Method toString = Object.class.getMethod("toString");
+        HyperloopInvocationHandler.beginSuperCall(receiver, toString);
+        try {
+            final boolean[] otherThread = new boolean[1];
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    otherThread[0] = HyperloopInvocationHandler.consumeSuperCall(receiver, toString);
+                }
+            });
+            t.start();
+            t.join();
+            // a concurrent call to the same object from another thread is a regular call
+            assertFalse(otherThread[0]);
+            assertFalse(HyperloopInvocationHandler.consumeSuperCall(new Object(), toString));
+            assertTrue(HyperloopInvocationHandler.consumeSuperCall(receiver, toString));
+            // only the first intercepted call goes to super
+            assertFalse(HyperloopInvocationHandler.consumeSuperCall(receiver, toString));
+        } finally {
+            HyperloopInvocationHandler.endSuperCall();
+        }
+    }
+
+    public static class Widget {
+        public String describe() {
+            return "widget " + label();
+        }
+
+        public String label() {
+            return "label";
+        }
+    }
+
+    /**
+     * Stands in for a generated subclass where JS only overrides label(), so
+     * describe() isn't intercepted.
+     */
+    public static class LabelOverridingWidget extends Widget {
+        @Override
+        public String label() {
+            try {
+                if (HyperloopInvocationHandler.consumeSuperCall(this, Widget.class.getMethod("label"))) {
+                    return super.label();
+                }
+            } catch (NoSuchMethodException e) {
+                throw new AssertionError(e);
+            }
+            return "js label";
+        }
+    }
+
+    @Test
+    public void testSuperCallOfMethodNotInterceptedKeepsOverrides() throws Exception {
+        Widget receiver = new LabelOverridingWidget();
+        // obj.super.describe(): describe() never reaches the handler, the
+        // label() it calls must still go to JS
+        HyperloopInvocationHandler.beginSuperCall(receiver, LabelOverridingWidget.class.getMethod("describe"));
+        try {
+            assertEquals("widget js label", receiver.describe());
+        } finally {
+            HyperloopInvocationHandler.endSuperCall();
+        }
+        // obj.super.label() goes to super
+        HyperloopInvocationHandler.beginSuperCall(receiver, LabelOverridingWidget.class.getMethod("label"));
+        try {
+            assertEquals("label", receiver.label());
+            // only that call
+            assertEquals("js label", receiver.label());
+        } finally {
+            HyperloopInvocationHandler.endSuperCall();
+        }
+    }
+
     private Object[] makeMethodCall(String methodName, Object... args) {
         KrollDict dict = new KrollDict();
         dict.put("func", methodName);
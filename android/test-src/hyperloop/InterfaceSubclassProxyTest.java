@@ -0,0 +1,60 @@
+package hyperloop;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.appcelerator.kroll.KrollFunction;
+import org.appcelerator.kroll.KrollObject;
+import org.junit.Test;
+
+public class InterfaceSubclassProxyTest {
+
+    private static class CountingFunction implements KrollFunction {
+        int calls;
+
+        @Override
+        public Object call(KrollObject thisObject, Object[] args) {
+            calls++;
+            return null;
+        }
+
+        @Override
+        public Object call(KrollObject thisObject, HashMap args) {
+            calls++;
+            return null;
+        }
+
+        @Override
+        public void callAsync(KrollObject thisObject, Object[] args) {
+        }
+
+        @Override
+        public void callAsync(KrollObject thisObject, HashMap args) {
+        }
+    }
+
+    @Test
+    public void testProxyClassAndConstructorAreShared() throws Exception {
+        InterfaceSubclassProxy a = new InterfaceSubclassProxy(Runnable.class);
+        InterfaceSubclassProxy b = new InterfaceSubclassProxy(Runnable.class);
+        assertSame(a.getWrappedObject(), b.getWrappedObject());
+        assertSame(InterfaceSubclassProxy.getConstructor((Class<?>) a.getWrappedObject()),
+                InterfaceSubclassProxy.getConstructor((Class<?>) b.getWrappedObject()));
+    }
+
+    @Test
+    public void testNewInstanceCallsOverride() throws Exception {
+        CountingFunction run = new CountingFunction();
+        Map<String, Object> overrides = new HashMap<String, Object>();
+        overrides.put("run", run);
+
+        InstanceProxy proxy = new InterfaceSubclassProxy(Runnable.class).newInstance(new Object[] { overrides });
+        assertNotNull(proxy);
+        ((Runnable) proxy.getWrappedObject()).run();
+        assertEquals(1, run.calls);
+        // The overrides are used as-is, not copied
+        assertSame(overrides, proxy.getOverrides());
+    }
+}
@@ -0,0 +1,77 @@
+package hyperloop;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.appcelerator.kroll.KrollFunction;
+import org.appcelerator.kroll.KrollObject;
+import org.junit.Test;
+
+public class OverrideDispatchTableTest {
+
+    private static final KrollFunction NOOP = new KrollFunction() {
+        @Override
+        public Object call(KrollObject thisObject, Object[] args) {
+            return null;
+        }
+
+        @Override
+        public Object call(KrollObject thisObject, HashMap args) {
+            return null;
+        }
+
+        @Override
+        public void callAsync(KrollObject thisObject, Object[] args) {
+        }
+
+        @Override
+        public void callAsync(KrollObject thisObject, HashMap args) {
+        }
+    };
+
+    @Test
+    public void testOverriddenFunctionIsResolved() throws Exception {
+        Map<String, Object> overrides = new HashMap<String, Object>();
+        overrides.put("run", NOOP);
+        OverrideDispatchTable table = new OverrideDispatchTable(overrides, "java.lang.Runnable");
+
+        OverrideDispatchTable.Entry entry = table.get(Runnable.class.getMethod("run"));
+        assertTrue(entry.overridden);
+        assertSame(NOOP, entry.function);
+        assertEquals(OverrideDispatchTable.NOT_OBJECT_METHOD, entry.plan.objectMethod);
+    }
+
+    @Test
+    public void testNonFunctionOverrideIsStillOverridden() throws Exception {
+        Map<String, Object> overrides = new HashMap<String, Object>();
+        overrides.put("run", "not a function");
+        OverrideDispatchTable table = new OverrideDispatchTable(overrides, "java.lang.Runnable");
+
+        OverrideDispatchTable.Entry entry = table.get(Runnable.class.getMethod("run"));
+        assertTrue(entry.overridden);
+        assertNull(entry.function);
+    }
+
+    @Test
+    public void testEntriesAreCachedPerMethod() throws Exception {
+        OverrideDispatchTable table = new OverrideDispatchTable(new HashMap<String, Object>(), "java.lang.Object");
+        Method method = Object.class.getMethod("equals", Object.class);
+
+        OverrideDispatchTable.Entry entry = table.get(method);
+        assertFalse(entry.overridden);
+        assertEquals(OverrideDispatchTable.OBJECT_EQUALS, entry.plan.objectMethod);
+        assertSame(entry, table.get(method));
+        // the argument plan is shared across tables
+        assertSame(entry.plan, new OverrideDispatchTable(new HashMap<String, Object>(), "java.lang.Object").get(method).plan);
+    }
+
+    @Test
+    public void testArgumentPlan() throws Exception {
+        byte[] plan = HyperloopUtil.planWrapArguments(new Class<?>[] { int.class, char.class, String.class, byte[].class });
+        assertArrayEquals(new byte[] { HyperloopUtil.WRAP_AS_IS, HyperloopUtil.WRAP_CHAR, HyperloopUtil.WRAP_AS_IS,
+                HyperloopUtil.WRAP_DYNAMIC }, plan);
+    }
+}
@@ -0,0 +1,58 @@
+package hyperloop;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrebuiltClassesTest {
+
+    @Before
+    public void setUp() throws Exception {
+        HyperloopStats.reset(new ProxyFactory());
+    }
+
+    @Test
+    public void testMangleKeepsNamesUnique() throws Exception {
+        assertEquals("android_view_View", PrebuiltClasses.mangle("android.view.View"));
+        assertEquals("android_view_View_2OnClickListener", PrebuiltClasses.mangle("android.view.View$OnClickListener"));
+        assertEquals("a_b_1c", PrebuiltClasses.mangle("a.b_c"));
+        assertFalse(PrebuiltClasses.mangle("a.b_c").equals(PrebuiltClasses.mangle("a_b.c")));
+    }
+
+    private static Set<String> names(String... names) {
+        return new TreeSet<String>(Arrays.asList(names));
+    }
+
+    @Test
+    public void testFindSubclass() throws Exception {
+        Class<?> prebuilt = PrebuiltClasses.findSubclass(ArrayList.class, names("add"));
+        assertNotNull(prebuilt);
+        assertEquals("hyperloop.prebuilt.java_util_ArrayList_Subclass_2df2ccea409ce57a", prebuilt.getName());
+        assertEquals(1, HyperloopStats.prebuiltClassHits.get());
+    }
+
+    @Test
+    public void testFindSubclassOnlyMatchesItsOverrides() throws Exception {
+        // built for "add" only, it would intercept too little (or too much)
+        assertNull(PrebuiltClasses.findSubclass(ArrayList.class, names("add", "remove")));
+        assertNull(PrebuiltClasses.findSubclass(ArrayList.class, names()));
+        assertNull(PrebuiltClasses.findSubclass(ArrayList.class, null));
+        assertEquals(0, HyperloopStats.prebuiltClassHits.get());
+    }
+
+    @Test
+    public void testFindSubclassReturnsNullWhenNotGenerated() throws Exception {
+        assertNull(PrebuiltClasses.findSubclass(LinkedList.class, names("add")));
+        // misses are cached, but still report a miss
+        assertNull(PrebuiltClasses.findSubclass(LinkedList.class, names("add")));
+        assertNull(PrebuiltClasses.findImplementation(Runnable.class));
+        assertEquals(0, HyperloopStats.prebuiltClassHits.get());
+    }
+}
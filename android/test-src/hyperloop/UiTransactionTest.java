@@ -0,0 +1,131 @@
+package hyperloop;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.appcelerator.kroll.KrollDict;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UiTransactionTest {
+
+    public static class Label {
+        final List<String> texts = new ArrayList<String>();
+        final List<String> threads = new ArrayList<String>();
+
+        public int setText(String text) {
+            if (text == null) {
+                throw new IllegalArgumentException("no text");
+            }
+            texts.add(text);
+            threads.add(Thread.currentThread().getName());
+            return texts.size();
+        }
+    }
+
+    private Executor fOriginalMain;
+    private Executor fOriginalBlockingMain;
+    private Executor fOriginalRuntime;
+    private int fPosts;
+
+    @Before
+    public void setUp() {
+        fOriginalMain = UiTransaction.fgMainExecutor;
+        fOriginalBlockingMain = UiTransaction.fgBlockingMainExecutor;
+        fOriginalRuntime = RuntimeExecutor.fgExecutor;
+        UiTransaction.fgMainExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                fPosts++;
+                Thread ui = new Thread(command, "ui");
+                ui.start();
+            }
+        };
+        UiTransaction.fgBlockingMainExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                fPosts++;
+                Thread ui = new Thread(command, "ui");
+                ui.start();
+                try {
+                    ui.join();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        RuntimeExecutor.fgExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        UiTransaction.fgMainExecutor = fOriginalMain;
+        UiTransaction.fgBlockingMainExecutor = fOriginalBlockingMain;
+        RuntimeExecutor.fgExecutor = fOriginalRuntime;
+    }
+
+    private static Map<String, Object> call(Object target, String text) {
+        Map<String, Object> call = new HashMap<String, Object>();
+        call.put("target", target);
+        call.put("func", "setText");
+        call.put("args", new Object[] { text });
+        return call;
+    }
+
+    @Test
+    public void testCallsRunInOnePost() throws Exception {
+        Label label = new Label();
+        InstanceProxy proxy = new InstanceProxy(Label.class, Label.class.getName(), label);
+        Map<String, Object> jsWrapper = new HashMap<String, Object>();
+        jsWrapper.put("$native", proxy);
+
+        KrollDict result = UiTransaction.prepare(new Object[] { call(proxy, "a"), call(jsWrapper, "b") }).run();
+
+        assertEquals(1, fPosts);
+        assertEquals(Boolean.TRUE, result.get("success"));
+        assertArrayEquals(new Object[] { 1, 2 }, (Object[]) result.get("results"));
+        assertEquals(2, label.threads.size());
+        assertEquals("ui", label.threads.get(0));
+        assertEquals("ui", label.threads.get(1));
+    }
+
+    @Test
+    public void testFailureEndsTransaction() throws Exception {
+        Label label = new Label();
+        InstanceProxy proxy = new InstanceProxy(Label.class, Label.class.getName(), label);
+
+        KrollDict result = UiTransaction.prepare(
+                new Object[] { call(proxy, "a"), call(proxy, null), call(proxy, "c") }).run();
+
+        assertEquals(Boolean.FALSE, result.get("success"));
+        assertEquals(1, result.get("index"));
+        assertEquals("no text", result.get("error"));
+        assertArrayEquals(new Object[] { 1 }, (Object[]) result.get("results"));
+        assertEquals(1, label.texts.size());
+    }
+
+    @Test
+    public void testNothingRunsIfACallDoesNotResolve() throws Exception {
+        Label label = new Label();
+        InstanceProxy proxy = new InstanceProxy(Label.class, Label.class.getName(), label);
+        Map<String, Object> bad = call(proxy, "b");
+        bad.put("func", "setTitle");
+
+        KrollDict result = UiTransaction.prepare(new Object[] { call(proxy, "a"), bad }).run();
+
+        assertEquals(Boolean.FALSE, result.get("success"));
+        assertEquals(1, result.get("index"));
+        assertTrue(label.texts.isEmpty());
+    }
+}
@@ -0,0 +1,11 @@
+package hyperloop.prebuilt;
+
+import java.util.ArrayList;
+
+/**
+ * Stands in for a subclass the build hook generated ahead of time, overriding
+ * "add".
+ */
+@SuppressWarnings("serial")
+public class java_util_ArrayList_Subclass_2df2ccea409ce57a extends ArrayList<Object> {
+}